@@ -0,0 +1,60 @@
+package me.michael4797.crypto.srp;
+
+import me.michael4797.crypto.srp.SRPUser.PasswordData;
+
+/**
+ * Builds client and server instances at each stage of a handshake for the benchmarks.
+ */
+final class BenchmarkFixture {
+
+	static final String USERNAME = "benchmark";
+	static final String PASSWORD = "correct horse battery staple";
+	
+	private BenchmarkFixture() {}
+	
+	/**
+	 * Makes the random values used by the benchmarks reproducible if a non-zero seed is given.
+	 * @param seed The seed, or 0 to use the secure random number generator.
+	 */
+	static void seed(long seed) {
+		
+		if(seed != 0)
+			SRP.useDeterministicRandom(seed);
+	}
+	
+	/**
+	 * Creates a client that has received its salt and a server that has received the client ephemeral.
+	 */
+	static Handshake negotiated(PasswordData data) throws SRPException {
+		
+		Handshake handshake = new Handshake(data);
+		handshake.user.setSalt(handshake.server.getSalt());
+		handshake.server.setA(handshake.user.getA());
+		return handshake;
+	}
+	
+	/**
+	 * Creates a client and server that have exchanged both ephemerals.
+	 */
+	static Handshake exchanged(PasswordData data) throws SRPException {
+		
+		Handshake handshake = negotiated(data);
+		handshake.user.setB(handshake.server.getB());
+		return handshake;
+	}
+	
+	/**
+	 * A client and server authenticating the benchmark user.
+	 */
+	static final class Handshake {
+		
+		final SRPUser user;
+		final SRPServer server;
+		
+		Handshake(PasswordData data) {
+			
+			user = new SRPUser(USERNAME, PASSWORD, data.group);
+			server = new SRPServer(USERNAME, data, null);
+		}
+	}
+}
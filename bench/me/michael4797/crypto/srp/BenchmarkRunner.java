@@ -0,0 +1,30 @@
+package me.michael4797.crypto.srp;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every SRP benchmark with the GC profiler attached, so that each report includes the
+ * allocation rate alongside throughput and latency percentiles. Any standard JMH command line
+ * options may be passed, for example <code>-p seed=42</code> to make every run generate the
+ * same random values, or a benchmark name pattern to run a subset.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		Options options = new OptionsBuilder()
+				.parent(commandLine)
+				.include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark")
+				.addProfiler(GCProfiler.class)
+				.build();
+		
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,119 @@
+package me.michael4797.crypto.srp;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import me.michael4797.crypto.srp.BenchmarkFixture.Handshake;
+import me.michael4797.crypto.srp.SRPUser.PasswordData;
+
+/**
+ * Compares the digests SRP can use on the hashes of a handshake, in the default group. The
+ * <code>rehashed</code> variants compute the proof from H(N) xor H(g) instead of resuming a copy
+ * of a digest that has already absorbed it, as the proof used to be computed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SRPDigestBenchmark {
+
+	@Param("0")
+	long seed;
+
+	@Param({"SHA_256", "SHA_512_256", "SHA_384"})
+	SRPDigest digest;
+
+	private SRPGroup group;
+	private PasswordData data;
+	private SRPServer server;
+	private byte[] hNxorG;
+	private byte[] A;
+	private byte[] B;
+	private byte[] K;
+	private byte[] M;
+	private BigInteger S;
+
+
+	@Setup
+	public void setup() throws SRPException {
+
+		BenchmarkFixture.seed(seed);
+		group = SRPGroup.DEFAULT.withDigest(digest);
+		data = SRPUser.encodePassword(BenchmarkFixture.USERNAME, BenchmarkFixture.PASSWORD, group);
+		Handshake handshake = BenchmarkFixture.exchanged(data);
+		server = handshake.server;
+		server.deriveKey();
+		A = handshake.user.getA();
+		B = server.getB();
+		K = server.getSessionKey();
+		M = handshake.user.getM();
+		S = SRP.fromByteArray(SRP.randomBytes(256));
+		hNxorG = SRP.xor(group.hash(SRP.toByteArray(group.N)), group.hash(SRP.toByteArray(group.g)));
+	}
+
+
+	@Benchmark
+	public byte[] hashPaddedToN() {
+
+		return group.hashPaddedToN(S);
+	}
+
+
+	@Benchmark
+	public BigInteger getU() {
+
+		return group.getU(A, B);
+	}
+
+	/**
+	 * The client's proof, which resumes the group's prefix and hashes the username.
+	 */
+	@Benchmark
+	public byte[] getM() {
+
+		return group.getM(BenchmarkFixture.USERNAME, data.salt, A, B, K);
+	}
+
+	/**
+	 * The server's proof for a user whose password data is held in memory, which resumes the
+	 * prefix cached with the password data.
+	 */
+	@Benchmark
+	public byte[] getMCached() {
+
+		return group.getM(data.getProofPrefix(BenchmarkFixture.USERNAME), A, B, K);
+	}
+
+
+	@Benchmark
+	public byte[] getMRehashed() {
+
+		byte[] hI = group.hash(SRP.toByteArray(BenchmarkFixture.USERNAME));
+		MessageDigest md = group.getDigest().digest();
+		md.update(hNxorG);
+		md.update(hI);
+		md.update(data.salt);
+		md.update(A);
+		md.update(B);
+		md.update(K);
+		return md.digest();
+	}
+
+	/**
+	 * Verifies the client's proof and computes the server's, with the session key already derived.
+	 */
+	@Benchmark
+	public byte[] serverGetHAMK() throws SRPException {
+
+		return server.getHAMK(M);
+	}
+}
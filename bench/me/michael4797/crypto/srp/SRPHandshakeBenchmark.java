@@ -0,0 +1,52 @@
+package me.michael4797.crypto.srp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import me.michael4797.crypto.srp.SRPUser.PasswordData;
+
+/**
+ * Benchmarks a complete client/server exchange held entirely in memory, from creating the
+ * client to verifying the server's proof.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SRPHandshakeBenchmark {
+
+	@Param("0")
+	long seed;
+	
+	private PasswordData data;
+	
+	
+	@Setup
+	public void setup() {
+		
+		BenchmarkFixture.seed(seed);
+		data = SRPUser.encodePassword(BenchmarkFixture.USERNAME, BenchmarkFixture.PASSWORD);
+	}
+	
+	
+	@Benchmark
+	public SRPUser handshake() throws SRPException {
+		
+		SRPUser user = new SRPUser(BenchmarkFixture.USERNAME, BenchmarkFixture.PASSWORD);
+		SRPServer server = new SRPServer(BenchmarkFixture.USERNAME, data.salt, data.verifier);
+		
+		user.setSalt(server.getSalt());
+		server.setA(user.getA());
+		user.setB(server.getB());
+		server.deriveKey();
+		user.verify(server.getHAMK(user.getM()));
+		return user;
+	}
+}
@@ -0,0 +1,105 @@
+package me.michael4797.crypto.srp;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the helpers shared by the client and server in {@link SRP}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SRPHelperBenchmark {
+
+	@Param("0")
+	long seed;
+	
+	private byte[] salt;
+	private byte[] A;
+	private byte[] B;
+	private byte[] K;
+	private byte[] shortA;
+	private BigInteger number;
+	
+	
+	@Setup
+	public void setup() {
+		
+		BenchmarkFixture.seed(seed);
+		salt = SRP.randomBytes(16);
+		A = SRP.randomBytes(256);
+		B = SRP.randomBytes(256);
+		K = SRP.randomBytes(32);
+		
+		//A value with a leading zero byte, so padding has work to do
+		A[0] = 0;
+		shortA = SRP.toByteArray(SRP.fromByteArray(A));
+		number = SRP.fromByteArray(shortA);
+	}
+	
+	
+	@Benchmark
+	public byte[] hash() {
+		
+		return SRP.hash(A, B);
+	}
+	
+	
+	@Benchmark
+	public byte[] padToN() {
+		
+		return SRPGroup.DEFAULT.padToN(number);
+	}
+	
+	
+	@Benchmark
+	public byte[] toByteArray() {
+		
+		return SRP.toByteArray(number);
+	}
+	
+	
+	@Benchmark
+	public BigInteger fromByteArray() {
+		
+		return SRP.fromByteArray(B);
+	}
+	
+	
+	@Benchmark
+	public byte[] hashPaddedToN() {
+		
+		return SRPGroup.DEFAULT.hashPaddedToN(number);
+	}
+	
+	
+	@Benchmark
+	public SRPServer createServer() {
+		
+		//Builds the server from arrays as they arrive from the user store, with the sign bit set
+		return new SRPServer(BenchmarkFixture.USERNAME, salt, B);
+	}
+	
+	
+	@Benchmark
+	public BigInteger getU() {
+		
+		return SRPGroup.DEFAULT.getU(shortA, B);
+	}
+	
+	
+	@Benchmark
+	public byte[] getM() {
+		
+		return SRPGroup.DEFAULT.getM(BenchmarkFixture.USERNAME, salt, A, B, K);
+	}
+}
@@ -0,0 +1,98 @@
+package me.michael4797.crypto.srp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import me.michael4797.crypto.srp.BenchmarkFixture.Handshake;
+import me.michael4797.crypto.srp.SRPUser.PasswordData;
+
+/**
+ * Benchmarks the number of logins per second the server can reject once the expensive part of
+ * the handshake is done, as during a flood of bad passwords or unknown usernames. The baseline
+ * throws a new exception that captures its stack trace, as SRPExceptions used to.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SRPRejectionBenchmark {
+
+	@Param("0")
+	long seed;
+
+	private SRPServer server;
+	private byte[] wrongM;
+	private CachingUserManager users;
+	private byte error;
+
+
+	@Setup
+	public void setup() throws SRPException {
+
+		BenchmarkFixture.seed(seed);
+		PasswordData data = SRPUser.encodePassword(BenchmarkFixture.USERNAME, BenchmarkFixture.PASSWORD);
+		Handshake handshake = BenchmarkFixture.exchanged(data);
+		server = handshake.server;
+		server.deriveKey();
+		wrongM = handshake.user.getM().clone();
+		wrongM[0] ^= 1;
+
+		users = new CachingUserManager(username -> {throw SRPException.AUTHENTICATION_FAILED;}, 16, 1, 1024, 1, TimeUnit.HOURS);
+		error = SRPException.AuthenticationFailedException.id;
+	}
+
+
+	@Benchmark
+	public Object wrongProof() {
+
+		try {
+			return server.getHAMK(wrongM);
+		}catch(SRPException e) {
+			return e;
+		}
+	}
+
+
+	@Benchmark
+	public Object unknownUser() {
+
+		try {
+			return users.getUserData("unknown");
+		}catch(SRPException e) {
+			return e;
+		}
+	}
+
+
+	@Benchmark
+	public Object decodeError() {
+
+		return SRPException.fromByte(error);
+	}
+
+
+	@Benchmark
+	public Object tracedFailure() {
+
+		try {
+			throw new TracedException();
+		}catch(TracedException e) {
+			return e;
+		}
+	}
+
+	/**
+	 * An exception that captures its stack trace when created.
+	 */
+	private static final class TracedException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+	}
+}
@@ -0,0 +1,152 @@
+package me.michael4797.crypto.srp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import me.michael4797.crypto.srp.BenchmarkFixture.Handshake;
+import me.michael4797.crypto.srp.SRPUser.PasswordData;
+
+/**
+ * Benchmarks each protocol step of {@link SRPUser} and {@link SRPServer} on its own. Each
+ * step gets fresh instances that have already completed every earlier step.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SRPStepBenchmark {
+	
+	@State(Scope.Thread)
+	public static class Enrolled {
+		
+		@Param("0")
+		long seed;
+		
+		PasswordData data;
+		
+		@Setup
+		public void setup() {
+			
+			BenchmarkFixture.seed(seed);
+			data = SRPUser.encodePassword(BenchmarkFixture.USERNAME, BenchmarkFixture.PASSWORD);
+		}
+	}
+	
+	@State(Scope.Thread)
+	public static class Created {
+		
+		Handshake handshake;
+		
+		@Setup(Level.Invocation)
+		public void setup(Enrolled enrolled) {
+			
+			handshake = new Handshake(enrolled.data);
+		}
+	}
+	
+	@State(Scope.Thread)
+	public static class Negotiated {
+		
+		Handshake handshake;
+		
+		@Setup(Level.Invocation)
+		public void setup(Enrolled enrolled) throws SRPException {
+			
+			handshake = BenchmarkFixture.negotiated(enrolled.data);
+		}
+	}
+	
+	@State(Scope.Thread)
+	public static class Exchanged {
+		
+		Handshake handshake;
+		byte[] M;
+		byte[] HAMK;
+		
+		@Setup(Level.Invocation)
+		public void setup(Enrolled enrolled) throws SRPException {
+			
+			Handshake source = BenchmarkFixture.exchanged(enrolled.data);
+			M = source.user.getM();
+			HAMK = source.server.getHAMK(M);
+			handshake = source;
+		}
+	}
+	
+	
+	@Benchmark
+	public PasswordData encodePassword() {
+		
+		return SRPUser.encodePassword(BenchmarkFixture.USERNAME, BenchmarkFixture.PASSWORD);
+	}
+	
+	
+	@Benchmark
+	public SRPUser userCreate() {
+		
+		return new SRPUser(BenchmarkFixture.USERNAME, BenchmarkFixture.PASSWORD);
+	}
+	
+	
+	@Benchmark
+	public SRPUser userSetSalt(Created state) {
+		
+		state.handshake.user.setSalt(state.handshake.server.getSalt());
+		return state.handshake.user;
+	}
+	
+	
+	@Benchmark
+	public SRPUser userSetB(Negotiated state) throws SRPException {
+		
+		state.handshake.user.setB(state.handshake.server.getB());
+		return state.handshake.user;
+	}
+	
+	
+	@Benchmark
+	public byte[] userGetM(Exchanged state) throws SRPException {
+		
+		return state.handshake.user.getM();
+	}
+	
+	
+	@Benchmark
+	public SRPUser userVerify(Exchanged state) throws SRPException {
+		
+		state.handshake.user.verify(state.HAMK);
+		return state.handshake.user;
+	}
+	
+	
+	@Benchmark
+	public byte[] serverGetB(Negotiated state) {
+		
+		return state.handshake.server.getB();
+	}
+	
+	
+	@Benchmark
+	public SRPServer serverDeriveKey(Negotiated state) throws SRPException {
+		
+		state.handshake.server.deriveKey();
+		return state.handshake.server;
+	}
+	
+	
+	/**
+	 * The session key has already been derived, as it is once the server ephemeral has been sent.
+	 */
+	@Benchmark
+	public byte[] serverGetHAMK(Exchanged state) throws SRPException {
+		
+		return state.handshake.server.getHAMK(state.M);
+	}
+}
@@ -0,0 +1,88 @@
+package me.michael4797.crypto.srp;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import me.michael4797.crypto.srp.SRPUser.PasswordData;
+
+/**
+ * An in-memory UserManager that simulates a remote store by delaying every lookup. Blocking
+ * lookups hold the calling thread for the whole delay, while asynchronous lookups complete on
+ * a timer thread, the way a non-blocking client for a directory service would.
+ */
+final class SlowUserManager implements UserManager{
+
+	private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		
+		Thread thread = new Thread(r, "SRP-SlowStore");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private final Map<String, PasswordData> users = new ConcurrentHashMap<>();
+	private final long latency;
+	
+	/**
+	 * Creates a new SlowUserManager.
+	 * @param latency The delay added to every lookup.
+	 * @param unit The unit of the delay.
+	 */
+	SlowUserManager(long latency, TimeUnit unit) {
+		
+		this.latency = unit.toNanos(latency);
+	}
+	
+	/**
+	 * Adds a user to the store.
+	 */
+	void put(String username, PasswordData data) {
+		
+		users.put(username, data);
+	}
+	
+	
+	@Override
+	public PasswordData getUserData(String username) throws SRPException {
+		
+		long end = System.nanoTime() + latency;
+		for(long remaining = latency; remaining > 0; remaining = end - System.nanoTime())
+			LockSupport.parkNanos(remaining);
+		
+		return find(username);
+	}
+	
+	
+	@Override
+	public CompletionStage<PasswordData> getUserDataAsync(String username) {
+		
+		CompletableFuture<PasswordData> result = new CompletableFuture<>();
+		timer.schedule(() -> {
+			
+			try {
+				
+				result.complete(find(username));
+			}catch(SRPException e) {
+				
+				result.completeExceptionally(e);
+			}
+		}, latency, TimeUnit.NANOSECONDS);
+		
+		return result;
+	}
+	
+	
+	private PasswordData find(String username) throws SRPException {
+		
+		PasswordData data = users.get(username);
+		if(data == null)
+			throw SRPException.UNKNOWN_USER;
+		
+		return data;
+	}
+}
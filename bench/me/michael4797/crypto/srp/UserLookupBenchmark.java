@@ -0,0 +1,82 @@
+package me.michael4797.crypto.srp;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks a burst of concurrent user lookups against a simulated slow store, comparing blocking
+ * lookups made by a fixed number of threads with lookups through the asynchronous contract.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UserLookupBenchmark {
+
+	@Param("1000")
+	long latencyMicros;
+	
+	@Param("64")
+	int burst;
+	
+	@Param("4")
+	int threads;
+	
+	private SlowUserManager store;
+	private UserManager blocking;
+	private ExecutorService pool;
+	
+	
+	@Setup
+	public void setup() {
+		
+		store = new SlowUserManager(latencyMicros, TimeUnit.MICROSECONDS);
+		store.put(BenchmarkFixture.USERNAME, SRPUser.encodePassword(BenchmarkFixture.USERNAME, BenchmarkFixture.PASSWORD));
+		pool = Executors.newFixedThreadPool(threads);
+		
+		//Forces lookups through the store's blocking method, as an existing manager would be
+		blocking = new AsyncUserManager(username -> store.getUserData(username), pool);
+	}
+	
+	
+	@TearDown
+	public void tearDown() {
+		
+		pool.shutdown();
+	}
+	
+	
+	@Benchmark
+	public Object blockingLookups() {
+		
+		return lookups(blocking);
+	}
+	
+	
+	@Benchmark
+	public Object asyncLookups() {
+		
+		return lookups(store);
+	}
+	
+	
+	private Object lookups(UserManager manager) {
+		
+		CompletableFuture<?>[] lookups = new CompletableFuture<?>[burst];
+		for(int i = 0; i < burst; i++)
+			lookups[i] = manager.getUserDataAsync(BenchmarkFixture.USERNAME).toCompletableFuture();
+		
+		return CompletableFuture.allOf(lookups).join();
+	}
+}
@@ -0,0 +1,67 @@
+package me.michael4797.crypto.srp;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import me.michael4797.crypto.srp.SRPUser.PasswordData;
+
+/**
+ * Adapts a UserManager with only a blocking lookup so that asynchronous lookups run on a separate
+ * executor, leaving the thread that asked for the password data free while the store responds.
+ */
+public class AsyncUserManager implements UserManager{
+
+	private final UserManager backing;
+	private final Executor executor;
+	
+	/**
+	 * Creates a new AsyncUserManager.
+	 * @param backing The UserManager that the password data is retrieved from.
+	 * @param executor The executor that runs the blocking lookups.
+	 */
+	public AsyncUserManager(UserManager backing, Executor executor) {
+		
+		this.backing = backing;
+		this.executor = executor;
+	}
+	
+	
+	@Override
+	public PasswordData getUserData(String username) throws SRPException {
+		
+		return backing.getUserData(username);
+	}
+	
+	/**
+	 * Runs the backing manager's lookup on the executor. If the executor rejects the lookup, the
+	 * returned stage completes exceptionally with a {@link SRPException.ServerBusyException}.
+	 */
+	@Override
+	public CompletionStage<PasswordData> getUserDataAsync(String username) {
+		
+		CompletableFuture<PasswordData> result = new CompletableFuture<>();
+		try {
+			
+			executor.execute(() -> {
+				
+				try {
+					
+					result.complete(backing.getUserData(username));
+				}catch(SRPException e) {
+					
+					result.completeExceptionally(e);
+				}catch(RuntimeException e) {
+					
+					result.completeExceptionally(e);
+				}
+			});
+		}catch(RejectedExecutionException e) {
+			
+			result.completeExceptionally(SRPException.SERVER_BUSY);
+		}
+		
+		return result;
+	}
+}
@@ -4,6 +4,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import me.michael4797.crypto.srp.SRPException.AuthenticationFailedException;
 import me.michael4797.crypto.srp.SRPUser.PasswordData;
@@ -12,7 +14,9 @@ import me.michael4797.util.BinaryOutputStream;
 
 /**
  * A basic implementation of a UserManager that stores user password salt/verifiers
- * as individual files.
+ * as individual files. Verifiers outside the default group are followed by the id of their group,
+ * and verifiers derived with PBKDF2 are followed by their iterations and then the id of their group
+ * with the high bit set.
  */
 public class BaseUserManager implements UserManager{
 
@@ -31,16 +35,23 @@ public class BaseUserManager implements UserManager{
 			File file = new File(directory, username + ".key");
 			if(file.exists() && file.isFile()) {
 				
+				long length = file.length();
+				if(length <= 16 || length > 1 << 16)
+					throw SRPException.AUTHENTICATION_FAILED;
+				
 				BinaryInputStream in = new BinaryInputStream(new FileInputStream(file));
 				byte[] salt = in.readByteArray(16);
-				byte[] verifier = in.readByteArray(256);				
+				byte[] rest = in.readByteArray((int) length - 16);
 				in.close();
 				
-				return new PasswordData(salt, verifier);
+				return decode(salt, rest);
 			}
+			
+			if(!file.exists())
+				throw SRPException.UNKNOWN_USER;
 		}catch(IOException e) {}
 		
-		throw new SRPException.AuthenticationFailedException();
+		throw SRPException.AUTHENTICATION_FAILED;
 	}
 	
 	
@@ -53,10 +64,46 @@ public class BaseUserManager implements UserManager{
 				BinaryOutputStream out = new BinaryOutputStream(new FileOutputStream(file));
 				out.writeByteArray(data.salt);
 				out.writeByteArray(data.verifier);
+				if(data.iterations > 0) {
+					
+					out.writeByteArray(ByteBuffer.allocate(4).putInt(data.iterations).array());
+					out.writeByte((byte) (data.group.getId() | 0x80));
+				}
+				else if(data.group != SRPGroup.DEFAULT)
+					out.writeByte(data.group.getId());
 				out.close();
+				return;
 			}
 		}catch(IOException e) {}
 		
-		throw new SRPException.AuthenticationFailedException();
+		throw SRPException.AUTHENTICATION_FAILED;
+	}
+	
+	/**
+	 * Splits the contents of a key file following the salt into the verifier and its trailer.
+	 */
+	private static PasswordData decode(byte[] salt, byte[] rest) throws SRPException {
+		
+		//Files written before groups were supported have no trailer
+		if(rest.length == SRPGroup.DEFAULT.length)
+			return new PasswordData(salt, rest);
+		
+		int trailer = rest[rest.length - 1];
+		int verifierLength = rest.length - 1;
+		int iterations = 0;
+		if((trailer & 0x80) != 0) {
+			
+			verifierLength -= 4;
+			if(verifierLength < 0)
+				throw SRPException.AUTHENTICATION_FAILED;
+			
+			iterations = ByteBuffer.wrap(rest, verifierLength, 4).getInt();
+		}
+		
+		SRPGroup group = SRPGroup.fromId((byte) (trailer & 0x7F));
+		if(group == null || verifierLength != group.length || iterations < 0)
+			throw SRPException.AUTHENTICATION_FAILED;
+		
+		return new PasswordData(salt, Arrays.copyOf(rest, verifierLength), group, iterations);
 	}
 }
@@ -0,0 +1,449 @@
+package me.michael4797.crypto.srp;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.michael4797.crypto.srp.SRPUser.PasswordData;
+
+/**
+ * Imports large numbers of users by deriving their password salt/verifiers on every core and
+ * writing them to a store in batches. Users are read from the source as they are needed, and
+ * only a fixed number of batches are ever in memory at once, so the size of the import does
+ * not affect the memory it uses. Batches are written in the order they were read, and after
+ * each batch is written the number of users imported can be recorded in a checkpoint file, so
+ * an interrupted import resumes after the last recorded batch. The checkpoint also records a hash
+ * of the usernames imported and the group and iterations they were derived with, and an import
+ * refuses to resume from a checkpoint written for another source or settings. Writes are at least
+ * once: if the import stops after a batch is written but before the checkpoint records it, that
+ * batch is derived and written again on resume, so the target should tolerate rewriting a user.
+ */
+public class BulkEnroller {
+
+	private final Target target;
+	private final int threads;
+	private final int batchSize;
+	private volatile Path checkpoint;
+	private volatile Progress progress;
+	private volatile SRPGroup group = SRPGroup.DEFAULT;
+	private volatile int iterations;
+
+	/**
+	 * Creates a new BulkEnroller that writes to the specified target.
+	 * @param target The store the password data is written to.
+	 * @param threads The number of threads used to derive password data.
+	 * @param batchSize The number of users written to the store at once.
+	 */
+	public BulkEnroller(Target target, int threads, int batchSize) {
+
+		if(threads < 1)
+			throw new IllegalArgumentException("threads must be positive.");
+		if(batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be positive.");
+
+		this.target = target;
+		this.threads = threads;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Sets the file that records how many users have been imported. If the file exists when an
+	 * import starts, that many users are skipped from the start of the source, provided they are the
+	 * users the checkpoint was written for and the group and iterations have not changed.
+	 * @param path The path of the checkpoint file, or null to disable checkpoints.
+	 */
+	public void setCheckpoint(String path) {
+
+		this.checkpoint = path == null ? null : Paths.get(path);
+	}
+
+	/**
+	 * Sets the listener that is notified each time a batch has been written.
+	 * @param progress The listener, or null to disable progress reporting.
+	 */
+	public void setProgress(Progress progress) {
+
+		this.progress = progress;
+	}
+
+	/**
+	 * Sets the group the imported users' verifiers are computed in.
+	 * @param group The group.
+	 */
+	public void setGroup(SRPGroup group) {
+
+		this.group = group;
+	}
+
+	/**
+	 * Sets the number of PBKDF2 iterations the imported users' private keys are derived with.
+	 * @param iterations The number of iterations, or 0 to derive them with a single hash.
+	 * @see SRPKeyDerivation#calibrate(SRPDigest, long, java.util.concurrent.TimeUnit)
+	 */
+	public void setIterations(int iterations) {
+
+		if(iterations < 0)
+			throw new IllegalArgumentException("iterations must not be negative.");
+
+		this.iterations = iterations;
+	}
+
+	/**
+	 * Imports every user in the specified file. Each line holds a username and password separated
+	 * by the first colon on the line. Blank lines are ignored.
+	 * @param path The path of the file.
+	 * @return The number of users imported by this call, not including any skipped by the checkpoint.
+	 * @throws IOException If the file could not be read, the checkpoint does not match the import, or
+	 * the password data could not be written.
+	 */
+	public long enroll(String path) throws IOException {
+
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8))) {
+			return enroll(new LineIterator(reader, path));
+		}catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Imports every user returned by the specified iterator.
+	 * @param users The users to import, as pairs of username and password.
+	 * @return The number of users imported by this call, not including any skipped by the checkpoint.
+	 * @throws IOException If the checkpoint does not match the import or the password data could
+	 * not be written.
+	 */
+	public long enroll(Iterator<String[]> users) throws IOException {
+
+		MessageDigest imported = SRPDigest.SHA_256.prefix();
+		long skipped = resume(users, imported);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+
+				Thread thread = new Thread(r, "SRP-Enroll-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		//Enough batches in flight to keep every thread busy while the oldest one is written
+		ArrayDeque<Future<Batch>> inFlight = new ArrayDeque<>();
+		long start = System.nanoTime();
+		long enrolled = 0;
+		try {
+
+			while(users.hasNext() || !inFlight.isEmpty()) {
+
+				if(users.hasNext() && inFlight.size() < threads*2) {
+
+					List<String[]> read = new ArrayList<>(batchSize);
+					while(read.size() < batchSize && users.hasNext())
+						read.add(users.next());
+
+					SRPGroup group = this.group;
+					int iterations = this.iterations;
+					inFlight.add(pool.submit(() -> derive(read, group, iterations)));
+					continue;
+				}
+
+				Batch batch = await(inFlight.poll());
+				target.write(batch.usernames, batch.data);
+				enrolled += batch.usernames.size();
+				for(String username : batch.usernames)
+					imported.update((username + '\n').getBytes(StandardCharsets.UTF_8));
+
+				writeCheckpoint(skipped + enrolled, batch.group, batch.iterations, imported);
+
+				Progress progress = this.progress;
+				if(progress != null) {
+
+					long elapsed = System.nanoTime() - start;
+					progress.report(skipped + enrolled, elapsed == 0 ? 0 : enrolled*1e9/elapsed);
+				}
+			}
+
+			return enrolled;
+		}finally {
+
+			for(Future<Batch> batch : inFlight)
+				batch.cancel(true);
+
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns a target that writes to the specified store, waiting for each batch to be made
+	 * durable by the store's group commit.
+	 * @param store The store to write to.
+	 * @return The target.
+	 */
+	public static Target toStore(LogUserManager store) {
+
+		return (usernames, data) -> {
+
+			List<CompletableFuture<Void>> results = new ArrayList<>(usernames.size());
+			for(int i = 0; i < usernames.size(); i++)
+				results.add(store.setUserDataAsync(usernames.get(i), data.get(i)));
+
+			for(CompletableFuture<Void> result : results) {
+
+				try {
+					result.get();
+				}catch(ExecutionException e) {
+					throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+				}catch(InterruptedException e) {
+
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns a target that writes to the specified store, flushing it after each batch. The store
+	 * appends a new record for every write, so a batch written again after resuming an interrupted
+	 * import takes that many more records out of the store's capacity.
+	 * @param store The store to write to.
+	 * @return The target.
+	 */
+	public static Target toStore(MappedUserManager store) {
+
+		return (usernames, data) -> {
+
+			for(int i = 0; i < usernames.size(); i++)
+				store.setUserData(usernames.get(i), data.get(i));
+
+			store.flush();
+		};
+	}
+
+
+	private static Batch derive(List<String[]> users, SRPGroup group, int iterations) {
+
+		Batch batch = new Batch(users.size(), group, iterations);
+		for(String[] user : users) {
+
+			batch.usernames.add(user[0]);
+			batch.data.add(SRPUser.encodePassword(user[0], user[1], group, iterations));
+		}
+
+		return batch;
+	}
+
+
+	private static Batch await(Future<Batch> batch) throws IOException {
+
+		try {
+			return batch.get();
+		}catch(ExecutionException e) {
+
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+
+			throw new IOException(e.getCause());
+		}catch(InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+
+	/**
+	 * Skips the users recorded by the checkpoint, hashing their usernames, and refuses to resume if
+	 * they are not the users the checkpoint was written for or would now be derived differently.
+	 */
+	private long resume(Iterator<String[]> users, MessageDigest imported) throws IOException {
+
+		Path checkpoint = this.checkpoint;
+		if(checkpoint == null || !Files.exists(checkpoint))
+			return 0;
+
+		Properties saved = new Properties();
+		try(Reader in = Files.newBufferedReader(checkpoint, StandardCharsets.UTF_8)) {
+			saved.load(in);
+		}
+
+		long count;
+		byte group;
+		int iterations;
+		String hash = saved.getProperty("users");
+		try {
+
+			count = Long.parseLong(saved.getProperty("count"));
+			group = Byte.parseByte(saved.getProperty("group"));
+			iterations = Integer.parseInt(saved.getProperty("iterations"));
+		}catch(NumberFormatException e) {
+			throw new IOException("Invalid checkpoint " + checkpoint);
+		}
+
+		if(hash == null || count < 0)
+			throw new IOException("Invalid checkpoint " + checkpoint);
+		if(group != this.group.getId() || iterations != this.iterations)
+			throw new IOException("Checkpoint " + checkpoint + " was written for users derived in " + SRPGroup.fromId(group) + " with " + iterations + " iterations.");
+
+		for(long i = 0; i < count; i++) {
+
+			if(!users.hasNext())
+				throw new IOException("Checkpoint " + checkpoint + " was written for a source with more than " + i + " users.");
+
+			imported.update((users.next()[0] + '\n').getBytes(StandardCharsets.UTF_8));
+		}
+
+		if(!hash.equals(hash(imported)))
+			throw new IOException("Checkpoint " + checkpoint + " was written for a different source.");
+
+		return count;
+	}
+
+
+	private void writeCheckpoint(long count, SRPGroup group, int iterations, MessageDigest imported) throws IOException {
+
+		Path checkpoint = this.checkpoint;
+		if(checkpoint == null)
+			return;
+
+		String saved = "count=" + count + "\ngroup=" + group.getId() + "\niterations=" + iterations + "\nusers=" + hash(imported) + "\n";
+
+		//Replace the checkpoint atomically so a crash can't leave it truncated
+		Path temporary = Paths.get(checkpoint + ".tmp");
+		Files.write(temporary, saved.getBytes(StandardCharsets.UTF_8));
+		Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	private static String hash(MessageDigest imported) {
+
+		//Hashes a copy, so the usernames of later batches continue the same hash
+		return new BigInteger(1, SRPDigest.SHA_256.resume(imported).digest()).toString(16);
+	}
+
+	/**
+	 * A store that imported password data is written to.
+	 */
+	public interface Target{
+
+		/**
+		 * Writes a batch of password data, returning once it has been stored.
+		 * @param usernames The users in the batch.
+		 * @param data The password salt/verifier of each user, in the same order.
+		 * @throws IOException If the batch could not be written.
+		 */
+		void write(List<String> usernames, List<PasswordData> data) throws IOException;
+	}
+
+	/**
+	 * Receives the progress of an import.
+	 */
+	public interface Progress{
+
+		/**
+		 * Called after each batch has been written.
+		 * @param enrolled The total number of users imported, including any skipped by the checkpoint.
+		 * @param usersPerSecond The average number of users imported per second by this call.
+		 */
+		void report(long enrolled, double usersPerSecond);
+	}
+
+	/**
+	 * The derived password data for a batch of users.
+	 */
+	private static final class Batch {
+
+		final List<String> usernames;
+		final List<PasswordData> data;
+		final SRPGroup group;
+		final int iterations;
+
+		Batch(int size, SRPGroup group, int iterations) {
+
+			this.usernames = new ArrayList<>(size);
+			this.data = new ArrayList<>(size);
+			this.group = group;
+			this.iterations = iterations;
+		}
+	}
+
+	/**
+	 * Reads username and password pairs from the lines of a file.
+	 */
+	private static final class LineIterator implements Iterator<String[]> {
+
+		private final BufferedReader reader;
+		private final String path;
+		private String[] next;
+		private long line;
+
+		LineIterator(BufferedReader reader, String path) {
+
+			this.reader = reader;
+			this.path = path;
+		}
+
+		@Override
+		public boolean hasNext() {
+
+			try {
+
+				String text;
+				while(next == null && (text = reader.readLine()) != null) {
+
+					line++;
+					if(text.isEmpty())
+						continue;
+
+					int split = text.indexOf(':');
+					if(split < 0)
+						throw new IOException("Missing ':' on line " + line + " of " + path);
+
+					next = new String[] {text.substring(0, split), text.substring(split + 1)};
+				}
+			}catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			return next != null;
+		}
+
+		@Override
+		public String[] next() {
+
+			if(!hasNext())
+				throw new NoSuchElementException();
+
+			String[] user = next;
+			next = null;
+			return user;
+		}
+	}
+}
@@ -0,0 +1,377 @@
+package me.michael4797.crypto.srp;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import me.michael4797.crypto.srp.SRPUser.PasswordData;
+
+/**
+ * A UserManager that caches the password data returned by another UserManager. Entries are
+ * evicted when they expire or, once the cache is full, in least recently used order. Usernames
+ * that the backing manager reports as {@link SRPException#UNKNOWN_USER unknown} are remembered in a
+ * separate, smaller cache, so repeated attempts with unknown usernames do not reach the backing
+ * store. Other failures, which may be errors reading an existing user, are never cached, so a
+ * backing manager that cannot tell a missing user from an error gets no negative caching. The
+ * cache is split into independently locked segments to keep concurrent lookups from contending.
+ */
+public class CachingUserManager implements UserManager{
+
+	private static final int SEGMENTS = 16;
+
+	private final UserManager backing;
+	private final long ttl;
+	private final long negativeTtl;
+	private final Segment[] entries = new Segment[SEGMENTS];
+	private final Segment[] unknown = new Segment[SEGMENTS];
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder negativeHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder negativeEvictions = new LongAdder();
+	private volatile WatchService watcher;
+
+	/**
+	 * Creates a new CachingUserManager in front of the specified UserManager.
+	 * @param backing The UserManager that the password data is retrieved from.
+	 * @param capacity The maximum number of users whose password data is cached.
+	 * @param ttl The time after which cached password data is retrieved again.
+	 * @param negativeCapacity The maximum number of unknown usernames remembered, or 0 to disable
+	 * negative caching.
+	 * @param negativeTtl The time after which an unknown username is looked up again.
+	 * @param unit The unit of both times.
+	 */
+	public CachingUserManager(UserManager backing, int capacity, long ttl, int negativeCapacity, long negativeTtl, TimeUnit unit) {
+
+		if(capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive.");
+		if(negativeCapacity < 0)
+			throw new IllegalArgumentException("negativeCapacity must not be negative.");
+
+		this.backing = backing;
+		this.ttl = unit.toNanos(ttl);
+		this.negativeTtl = unit.toNanos(negativeTtl);
+		for(int i = 0; i < SEGMENTS; i++) {
+
+			entries[i] = new Segment((capacity + SEGMENTS - 1)/SEGMENTS, evictions);
+			unknown[i] = new Segment((negativeCapacity + SEGMENTS - 1)/SEGMENTS, negativeEvictions);
+		}
+	}
+
+
+	@Override
+	public PasswordData getUserData(String username) throws SRPException {
+
+		int segment = segment(username);
+		long now = System.nanoTime();
+		Lookup lookup = entries[segment].get(username, now);
+		if(lookup != null) {
+
+			hits.increment();
+			return lookup.data;
+		}
+
+		if(unknown[segment].get(username, now) != null) {
+
+			negativeHits.increment();
+			throw SRPException.UNKNOWN_USER;
+		}
+
+		misses.increment();
+		//An invalidation during the lookup means the result may already be stale, so it isn't cached
+		long generation = entries[segment].generation();
+		PasswordData data;
+		try {
+
+			data = backing.getUserData(username);
+		}catch(SRPException.UnknownUserException e) {
+
+			unknown[segment].put(username, new Lookup(null, System.nanoTime() + negativeTtl), generation, entries[segment]);
+			throw e;
+		}
+
+		entries[segment].put(username, new Lookup(data, System.nanoTime() + ttl), generation, entries[segment]);
+		return data;
+	}
+	
+	/**
+	 * Answers from the cache when possible, and otherwise uses the backing manager's asynchronous
+	 * lookup and caches its result.
+	 */
+	@Override
+	public CompletionStage<PasswordData> getUserDataAsync(String username) {
+		
+		int segment = segment(username);
+		long now = System.nanoTime();
+		Lookup lookup = entries[segment].get(username, now);
+		if(lookup != null) {
+			
+			hits.increment();
+			return CompletableFuture.completedFuture(lookup.data);
+		}
+		
+		if(unknown[segment].get(username, now) != null) {
+			
+			negativeHits.increment();
+			CompletableFuture<PasswordData> result = new CompletableFuture<>();
+			result.completeExceptionally(SRPException.UNKNOWN_USER);
+			return result;
+		}
+		
+		misses.increment();
+		long generation = entries[segment].generation();
+		return backing.getUserDataAsync(username).whenComplete((data, e) -> {
+			
+			Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+			if(cause instanceof SRPException.UnknownUserException)
+				unknown[segment].put(username, new Lookup(null, System.nanoTime() + negativeTtl), generation, entries[segment]);
+			else if(cause == null)
+				entries[segment].put(username, new Lookup(data, System.nanoTime() + ttl), generation, entries[segment]);
+		});
+	}
+
+	/**
+	 * Discards any cached information about the specified user. This must be called when the
+	 * user's password data is created or changed in the backing store.
+	 * @param username The user whose information should be discarded.
+	 */
+	public void invalidate(String username) {
+
+		int segment = segment(username);
+		entries[segment].remove(username);
+		unknown[segment].remove(username);
+	}
+
+	/**
+	 * Discards all cached information.
+	 */
+	public void invalidateAll() {
+
+		for(int i = 0; i < SEGMENTS; i++) {
+
+			entries[i].clear();
+			unknown[i].clear();
+		}
+	}
+
+	/**
+	 * Watches the specified directory, as used by a {@link BaseUserManager}, and invalidates a
+	 * user whenever their key file is created, modified, or deleted.
+	 * @param directory The directory containing the user key files.
+	 * @throws IOException If the directory could not be watched.
+	 */
+	public synchronized void watch(String directory) throws IOException {
+
+		if(watcher == null) {
+
+			watcher = FileSystems.getDefault().newWatchService();
+			Thread thread = new Thread(this::processEvents, "SRP-UserCacheWatcher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		Paths.get(directory).register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+	}
+
+	/**
+	 * Stops watching any directories.
+	 */
+	public synchronized void shutdown() {
+
+		if(watcher == null)
+			return;
+
+		try {
+			watcher.close();
+		}catch(IOException e) {}
+
+		watcher = null;
+	}
+
+	/**
+	 * Returns the number of lookups answered with cached password data.
+	 * @return The number of hits.
+	 */
+	public long getHits() {
+
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups answered from the cache of unknown usernames.
+	 * @return The number of negative hits.
+	 */
+	public long getNegativeHits() {
+
+		return negativeHits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups passed on to the backing UserManager.
+	 * @return The number of misses.
+	 */
+	public long getMisses() {
+
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of cached password data entries evicted to make room for new ones.
+	 * @return The number of evictions.
+	 */
+	public long getEvictions() {
+
+		return evictions.sum();
+	}
+
+	/**
+	 * Returns the number of unknown usernames evicted to make room for new ones.
+	 * @return The number of negative evictions.
+	 */
+	public long getNegativeEvictions() {
+
+		return negativeEvictions.sum();
+	}
+
+
+	private void processEvents() {
+
+		WatchService watcher = this.watcher;
+		try {
+
+			while(true) {
+
+				WatchKey key = watcher.take();
+				for(WatchEvent<?> event : key.pollEvents()) {
+
+					if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+
+						invalidateAll();
+						continue;
+					}
+
+					String name = ((Path) event.context()).getFileName().toString();
+					if(name.endsWith(".key"))
+						invalidate(name.substring(0, name.length() - 4));
+				}
+
+				key.reset();
+			}
+		}catch(InterruptedException | ClosedWatchServiceException e) {}
+	}
+
+
+	private static int segment(String username) {
+
+		int hash = username.hashCode();
+		return (hash ^ (hash >>> 16)) & (SEGMENTS - 1);
+	}
+
+	/**
+	 * A cached lookup result and the time at which it expires.
+	 */
+	private static final class Lookup {
+
+		final PasswordData data;
+		final long expires;
+
+		Lookup(PasswordData data, long expires) {
+
+			this.data = data;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * A single independently locked, access ordered part of the cache.
+	 */
+	private final class Segment {
+
+		private final int capacity;
+		private final LongAdder evictions;
+		private final LinkedHashMap<String, Lookup> map;
+		private long generation;
+
+		Segment(int capacity, LongAdder evictions) {
+
+			this.capacity = capacity;
+			this.evictions = evictions;
+			this.map = new LinkedHashMap<String, Lookup>(16, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Lookup> eldest) {
+
+					if(size() <= Segment.this.capacity)
+						return false;
+
+					Segment.this.evictions.increment();
+					return true;
+				}
+			};
+		}
+
+		synchronized Lookup get(String username, long now) {
+
+			Lookup lookup = map.get(username);
+			if(lookup != null && now - lookup.expires >= 0) {
+
+				map.remove(username);
+				return null;
+			}
+
+			return lookup;
+		}
+
+		synchronized long generation() {
+
+			return generation;
+		}
+
+		/**
+		 * Caches the lookup unless the specified segment has been invalidated since the
+		 * specified generation.
+		 */
+		void put(String username, Lookup lookup, long generation, Segment guard) {
+
+			synchronized(guard) {
+
+				if(guard.generation != generation)
+					return;
+
+				synchronized(this) {
+
+					if(capacity > 0)
+						map.put(username, lookup);
+				}
+			}
+		}
+
+		synchronized void remove(String username) {
+
+			map.remove(username);
+			generation++;
+		}
+
+		synchronized void clear() {
+
+			map.clear();
+			generation++;
+		}
+	}
+}
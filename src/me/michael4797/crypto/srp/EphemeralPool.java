@@ -0,0 +1,158 @@
+package me.michael4797.crypto.srp;
+
+import java.math.BigInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of precomputed server ephemeral exponents and their powers of g.
+ * Generating the secret ephemeral b and computing g^b does not depend on the client,
+ * so a background worker computes pairs ahead of time and {@link SRPServer} only has
+ * to add k*v when a client connects. Each pair is handed out exactly once. If the pool
+ * is empty, the pair is computed inline instead.
+ */
+public class EphemeralPool {
+
+	private final SRPGroup group;
+	private final BlockingQueue<Ephemeral> pool;
+	private final long interval;
+	private final Thread worker;
+	private final AtomicLong misses = new AtomicLong();
+	private volatile boolean running = true;
+
+	/**
+	 * Creates a new EphemeralPool for the default group and starts its background worker.
+	 * @param size The maximum number of precomputed ephemerals held by the pool.
+	 * @param refillRate The maximum number of ephemerals generated per second by the
+	 * background worker, or 0 to generate them as fast as possible.
+	 */
+	public EphemeralPool(int size, int refillRate) {
+
+		this(SRPGroup.DEFAULT, size, refillRate);
+	}
+
+	/**
+	 * Creates a new EphemeralPool and starts its background worker. Only servers authenticating
+	 * users of a group with the same prime, whatever its digest, take ephemerals from the pool.
+	 * @param group The group the ephemerals are computed in.
+	 * @param size The maximum number of precomputed ephemerals held by the pool.
+	 * @param refillRate The maximum number of ephemerals generated per second by the
+	 * background worker, or 0 to generate them as fast as possible.
+	 */
+	public EphemeralPool(SRPGroup group, int size, int refillRate) {
+
+		if(size < 1)
+			throw new IllegalArgumentException("size must be positive.");
+		if(refillRate < 0)
+			throw new IllegalArgumentException("refillRate must not be negative.");
+
+		this.group = group;
+		this.pool = new ArrayBlockingQueue<>(size);
+		this.interval = refillRate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1)/refillRate;
+		this.worker = new Thread(this::refill, "SRP-EphemeralPool");
+		worker.setDaemon(true);
+		worker.setPriority(Thread.MIN_PRIORITY);
+		worker.start();
+	}
+
+	/**
+	 * Stops the background worker and discards any remaining ephemerals.
+	 */
+	public void shutdown() {
+
+		running = false;
+		worker.interrupt();
+		pool.clear();
+	}
+
+	/**
+	 * Returns the group the ephemerals are computed in.
+	 * @return The group.
+	 */
+	public SRPGroup getGroup() {
+
+		return group;
+	}
+
+	/**
+	 * Returns the number of precomputed ephemerals currently available.
+	 * @return The number of available ephemerals.
+	 */
+	public int available() {
+
+		return pool.size();
+	}
+
+	/**
+	 * Returns the number of ephemerals that had to be computed inline because the
+	 * pool was empty.
+	 * @return The number of pool misses.
+	 */
+	public long getMisses() {
+
+		return misses.get();
+	}
+
+	/**
+	 * Removes a precomputed ephemeral from the pool, or computes a new one if the
+	 * pool is empty.
+	 * @return An ephemeral that has not been handed out before.
+	 */
+	Ephemeral take() {
+
+		Ephemeral ephemeral = pool.poll();
+		if(ephemeral != null)
+			return ephemeral;
+
+		misses.incrementAndGet();
+		return Ephemeral.generate(group);
+	}
+
+
+	private void refill() {
+
+		long next = System.nanoTime();
+		while(running) {
+
+			try {
+
+				long delay = next - System.nanoTime();
+				if(delay > 0)
+					TimeUnit.NANOSECONDS.sleep(delay);
+
+				pool.put(Ephemeral.generate(group));
+				next = Math.max(next, System.nanoTime() - interval) + interval;
+			}catch(InterruptedException e) {}
+		}
+
+		pool.clear();
+	}
+
+	/**
+	 * A secret server ephemeral exponent paired with g raised to that exponent.
+	 */
+	static final class Ephemeral {
+
+		final BigInteger b;
+		final BigInteger gb;
+
+		private Ephemeral(BigInteger b, BigInteger gb) {
+
+			this.b = b;
+			this.gb = gb;
+		}
+
+		/**
+		 * Generates a new random ephemeral exponent and computes its power of g.
+		 * @param group The group the ephemeral is computed in.
+		 * @return The new ephemeral.
+		 */
+		static Ephemeral generate(SRPGroup group) {
+
+			BigInteger b = SRP.fromByteArray(SRP.randomBytes(32));
+			return new Ephemeral(b, group.gPow(b));
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package me.michael4797.crypto.srp;
+
+import java.math.BigInteger;
+
+/**
+ * Computes powers of a single fixed base modulo a fixed modulus using a table of
+ * precomputed powers. The exponent is split into windows of a fixed number of bits,
+ * and for each window position every possible power of the base is stored, so an
+ * exponentiation requires only one modular multiplication per window and no squarings.
+ * Exponents larger than the table was built for fall back to {@link BigInteger#modPow}.
+ */
+final class FixedBaseTable {
+
+	private final BigInteger base;
+	private final BigInteger modulus;
+	private final BigInteger mu;
+	private final int modulusBits;
+	private final int window;
+	private final int maxBits;
+	private final BigInteger[][] table;
+
+	/**
+	 * Builds the table of powers for the specified base and modulus.
+	 * @param base The fixed base.
+	 * @param modulus The fixed modulus.
+	 * @param maxBits The largest exponent size, in bits, that can be computed from the table.
+	 * @param window The number of exponent bits consumed by each table lookup.
+	 */
+	FixedBaseTable(BigInteger base, BigInteger modulus, int maxBits, int window) {
+
+		if(window < 1 || window > 16)
+			throw new IllegalArgumentException("window must be between 1 and 16.");
+
+		this.base = base;
+		this.modulus = modulus;
+		this.modulusBits = modulus.bitLength();
+		this.mu = BigInteger.ONE.shiftLeft(2*modulusBits).divide(modulus);
+		this.window = window;
+
+		int windows = (maxBits + window - 1)/window;
+		this.maxBits = windows*window;
+		this.table = new BigInteger[windows][1 << window];
+
+		BigInteger start = base.mod(modulus);
+		for(int i = 0; i < windows; i++) {
+
+			BigInteger[] row = table[i];
+			row[0] = BigInteger.ONE;
+			row[1] = start;
+			for(int j = 2; j < row.length; j++)
+				row[j] = multiply(row[j-1], start);
+
+			//The first entry of the next row is this row's base raised to 2^window
+			start = multiply(row[row.length-1], start);
+		}
+	}
+
+	/**
+	 * Raises the base to the specified exponent, modulo the modulus.
+	 * @param exponent The non-negative exponent.
+	 * @return base^exponent mod modulus.
+	 */
+	BigInteger pow(BigInteger exponent) {
+
+		if(exponent.signum() < 0 || exponent.bitLength() > maxBits)
+			return base.modPow(exponent, modulus);
+
+		int mask = (1 << window) - 1;
+		BigInteger result = null;
+		int bits = exponent.bitLength();
+		for(int i = 0, offset = 0; offset < bits; i++, offset += window) {
+
+			int digit = 0;
+			for(int j = window-1; j >= 0; j--)
+				digit = (digit << 1) | (exponent.testBit(offset+j) ? 1 : 0);
+
+			digit &= mask;
+			if(digit == 0)
+				continue;
+
+			result = result == null ? table[i][digit] : multiply(result, table[i][digit]);
+		}
+
+		return result == null ? BigInteger.ONE : result;
+	}
+
+	/**
+	 * Multiplies two residues and reduces the product using Barrett reduction, which
+	 * replaces the long division in {@link BigInteger#mod} with two multiplications.
+	 */
+	private BigInteger multiply(BigInteger x, BigInteger y) {
+
+		BigInteger product = x.multiply(y);
+		BigInteger q = product.shiftRight(modulusBits-1).multiply(mu).shiftRight(modulusBits+1);
+		BigInteger r = product.subtract(q.multiply(modulus));
+		while(r.compareTo(modulus) >= 0)
+			r = r.subtract(modulus);
+
+		return r;
+	}
+}
@@ -0,0 +1,598 @@
+package me.michael4797.crypto.srp;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import me.michael4797.crypto.srp.SRPUser.PasswordData;
+
+/**
+ * A UserManager that stores password salt/verifiers in an append-only log file. Every change is
+ * appended as a checksummed record, and the current password data for every user is held in memory,
+ * rebuilt from the log when the store is opened. A partially written record left by a crash is
+ * detected by its checksum and discarded. Writes from many threads are gathered by a single commit
+ * thread and made durable together with one fsync, and a write is only reported as successful, and
+ * only becomes visible to lookups, once it is durable. When most of the log is made up of superseded
+ * records, a background thread copies the current records to a new log while commits continue, and
+ * the commit thread then appends the records committed during the copy and switches to the new log
+ * between batches. Verifiers outside the default
+ * group, and verifiers derived with PBKDF2, are written as separate record types carrying the id of
+ * their group and their iterations, so logs written before either was supported remain readable.
+ */
+public class LogUserManager implements UserManager{
+
+	private static final byte PUT = 1;
+	private static final byte DELETE = 2;
+	private static final byte PUT_GROUP = 3;
+	private static final byte PUT_ITERATED = 4;
+	private static final int MAX_RECORD = 1 << 16;
+	//Queued by close() behind every accepted write to stop the commit thread
+	private static final Write CLOSE = new Write("", null);
+	//Queued by a compaction once its copy is written, to wake the commit thread to adopt it
+	private static final Write COMPACTED = new Write("", null);
+
+	private final Path path;
+	private final int maxBatch;
+	private final double compactionThreshold;
+	private final Map<String, PasswordData> users = new ConcurrentHashMap<>();
+	private final BlockingQueue<Write> pending = new LinkedBlockingQueue<>();
+	private final Thread committer;
+	private final CRC32 crc = new CRC32();
+	private FileChannel channel;
+	private long size;
+	private long live;
+	private Compaction compaction; //Only used by the commit thread
+	private volatile boolean closed;
+
+	/**
+	 * Opens the specified log, creating it if it does not exist, using the default batch size and
+	 * compaction threshold.
+	 * @param path The path of the log.
+	 * @throws IOException If the log could not be opened.
+	 */
+	public LogUserManager(String path) throws IOException {
+
+		this(path, 1024, 0.5);
+	}
+
+	/**
+	 * Opens the specified log, creating it if it does not exist.
+	 * @param path The path of the log.
+	 * @param maxBatch The maximum number of writes made durable by a single fsync.
+	 * @param compactionThreshold The fraction of the log that must be superseded records before it
+	 * is compacted.
+	 * @throws IOException If the log could not be opened.
+	 */
+	public LogUserManager(String path, int maxBatch, double compactionThreshold) throws IOException {
+
+		if(maxBatch < 1)
+			throw new IllegalArgumentException("maxBatch must be positive.");
+		if(compactionThreshold <= 0 || compactionThreshold >= 1)
+			throw new IllegalArgumentException("compactionThreshold must be between 0 and 1.");
+
+		this.path = Paths.get(path);
+		this.maxBatch = maxBatch;
+		this.compactionThreshold = compactionThreshold;
+		this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			replay();
+		}catch(IOException e) {
+
+			channel.close();
+			throw e;
+		}
+
+		this.committer = new Thread(this::commit, "SRP-LogCommitter");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+
+	@Override
+	public PasswordData getUserData(String username) throws SRPException {
+
+		PasswordData data = users.get(username);
+		if(data == null)
+			throw SRPException.UNKNOWN_USER;
+
+		return data;
+	}
+
+	/**
+	 * Stores the password data for the specified user, replacing any existing data, and waits until
+	 * the change is durable.
+	 * @param username The user whose password data is being stored.
+	 * @param data The password salt/verifier.
+	 * @throws IOException If the change could not be written.
+	 */
+	public void setUserData(String username, PasswordData data) throws IOException {
+
+		await(setUserDataAsync(username, data));
+	}
+
+	/**
+	 * Stores the password data for the specified user, replacing any existing data, without waiting.
+	 * @param username The user whose password data is being stored.
+	 * @param data The password salt/verifier.
+	 * @return A future that completes once the change is durable, or completes exceptionally with the
+	 * IOException that prevented it from being written.
+	 */
+	public CompletableFuture<Void> setUserDataAsync(String username, PasswordData data) {
+
+		return submit(new Write(username, data));
+	}
+
+	/**
+	 * Removes the specified user and waits until the change is durable.
+	 * @param username The user to remove.
+	 * @throws IOException If the change could not be written.
+	 */
+	public void removeUser(String username) throws IOException {
+
+		await(submit(new Write(username, null)));
+	}
+
+	/**
+	 * Returns the number of users in the store.
+	 * @return The number of users.
+	 */
+	public int getUserCount() {
+
+		return users.size();
+	}
+
+	/**
+	 * Writes any waiting changes and closes the log. Changes submitted after this call fail.
+	 * @throws IOException If the log could not be closed.
+	 */
+	public void close() throws IOException {
+
+		synchronized(pending) {
+
+			if(!closed) {
+
+				closed = true;
+				pending.add(CLOSE);
+			}
+		}
+
+		boolean interrupted = false;
+		while(true) {
+
+			try {
+				committer.join();
+				break;
+			}catch(InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if(interrupted)
+			Thread.currentThread().interrupt();
+
+		channel.close();
+	}
+
+
+	private CompletableFuture<Void> submit(Write write) {
+
+		byte[] name = write.username.getBytes(StandardCharsets.UTF_8);
+		if(name.length > Short.MAX_VALUE) {
+
+			write.result.completeExceptionally(new IOException("Username is too long: " + write.username));
+			return write.result;
+		}
+
+		//Checked and added together, so no write can be queued behind the close marker
+		synchronized(pending) {
+
+			if(closed)
+				write.result.completeExceptionally(new IOException("User store is closed."));
+			else
+				pending.add(write);
+		}
+
+		return write.result;
+	}
+
+
+	private static void await(CompletableFuture<Void> result) throws IOException {
+
+		try {
+			result.get();
+		}catch(ExecutionException e) {
+
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+
+			throw new IOException(e.getCause());
+		}catch(InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * Rebuilds the in-memory index from the log, discarding anything after the last intact record.
+	 */
+	private void replay() throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+		long valid = 0;
+		try {
+
+			while(true) {
+
+				int length = in.readInt();
+				if(length <= 0 || length > MAX_RECORD)
+					break;
+
+				byte[] body = new byte[length];
+				in.readFully(body);
+				crc.reset();
+				crc.update(body, 0, length);
+				if(in.readInt() != (int) crc.getValue())
+					break;
+
+				apply(ByteBuffer.wrap(body), 8 + length);
+				valid += 8 + length;
+			}
+		}catch(EOFException e) {}
+
+		if(valid < channel.size())
+			channel.truncate(valid);
+
+		channel.position(valid);
+		size = valid;
+	}
+
+	/**
+	 * Applies a record from the log to the in-memory index.
+	 */
+	private void apply(ByteBuffer body, int recordSize) throws IOException {
+
+		byte type = body.get();
+		byte[] name = new byte[body.getShort() & 65535];
+		body.get(name);
+		String username = new String(name, StandardCharsets.UTF_8);
+
+		PasswordData old;
+		if(type == PUT || type == PUT_GROUP || type == PUT_ITERATED) {
+
+			byte[] salt = new byte[body.get() & 255];
+			body.get(salt);
+			byte[] verifier = new byte[body.getShort() & 65535];
+			body.get(verifier);
+			SRPGroup group = type == PUT ? SRPGroup.DEFAULT : SRPGroup.fromId(body.get());
+			int iterations = type == PUT_ITERATED ? body.getInt() : 0;
+			if(group == null)
+				throw new IOException("Unknown group in " + path);
+
+			old = users.put(username, new PasswordData(salt, verifier, group, iterations));
+			live += recordSize;
+		}
+		else if(type == DELETE)
+			old = users.remove(username);
+		else
+			throw new IOException("Unknown record type " + type + " in " + path);
+
+		if(old != null)
+			live -= recordSize(name.length, old);
+	}
+
+
+	private static int recordSize(int nameLength, PasswordData data) {
+
+		return 8 + 1 + 2 + nameLength + (data == null ? 0 : 1 + data.salt.length + 2 + data.verifier.length + trailerSize(data));
+	}
+
+
+	private static int trailerSize(PasswordData data) {
+
+		if(data.iterations > 0)
+			return 5;
+
+		return data.group == SRPGroup.DEFAULT ? 0 : 1;
+	}
+
+
+	private void commit() {
+
+		List<Write> batch = new ArrayList<>(maxBatch);
+		boolean running = true;
+		while(running) {
+
+			try {
+
+				if(pending.isEmpty())
+					batch.add(pending.take());
+
+				pending.drainTo(batch, maxBatch - batch.size());
+			}catch(InterruptedException e) {
+				continue;
+			}
+
+			running = !batch.remove(CLOSE);
+			if(batch.remove(COMPACTED))
+				adopt();
+			if(batch.isEmpty())
+				continue;
+
+			try {
+
+				write(batch);
+				for(Write write : batch)
+					write.result.complete(null);
+			}catch(IOException e) {
+
+				for(Write write : batch)
+					write.result.completeExceptionally(e);
+			}
+
+			if(compaction == null && size > 0 && live < size*(1 - compactionThreshold)) {
+
+				compaction = new Compaction(size);
+				compaction.start();
+			}
+
+			batch.clear();
+		}
+
+		if(compaction != null) {
+
+			while(compaction.isAlive()) {
+
+				try {
+					compaction.join();
+				}catch(InterruptedException e) {}
+			}
+
+			adopt();
+		}
+
+		IOException error = new IOException("User store is closed.");
+		for(Write write = pending.poll(); write != null; write = pending.poll())
+			write.result.completeExceptionally(error);
+	}
+
+	/**
+	 * Appends a batch of writes and makes them durable with a single fsync. The index is only updated
+	 * once the whole batch is durable; if anything fails the log is truncated back to its previous end.
+	 */
+	private void write(List<Write> batch) throws IOException {
+
+		ByteBuffer buffer = encode(batch, crc);
+		try {
+
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+
+			channel.force(false);
+		}catch(IOException e) {
+
+			try {
+				channel.truncate(size);
+				channel.position(size);
+			}catch(IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+
+			throw e;
+		}
+
+		buffer.rewind();
+		while(buffer.hasRemaining()) {
+
+			int length = buffer.getInt();
+			ByteBuffer body = buffer.slice();
+			body.limit(length);
+			apply(body, 8 + length);
+			buffer.position(buffer.position() + length + 4);
+		}
+
+		size += buffer.limit();
+	}
+
+	/**
+	 * Serializes a batch of writes as log records.
+	 */
+	private static ByteBuffer encode(List<Write> batch, CRC32 crc) {
+
+		int total = 0;
+		byte[][] names = new byte[batch.size()][];
+		for(int i = 0; i < names.length; i++) {
+
+			Write write = batch.get(i);
+			names[i] = write.username.getBytes(StandardCharsets.UTF_8);
+			total += recordSize(names[i].length, write.data);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(total);
+		for(int i = 0; i < names.length; i++) {
+
+			PasswordData data = batch.get(i).data;
+			int start = buffer.position();
+			buffer.putInt(recordSize(names[i].length, data) - 8);
+			buffer.put(data == null ? DELETE : type(data));
+			buffer.putShort((short) names[i].length);
+			buffer.put(names[i]);
+			if(data != null) {
+
+				buffer.put((byte) data.salt.length);
+				buffer.put(data.salt);
+				buffer.putShort((short) data.verifier.length);
+				buffer.put(data.verifier);
+				if(trailerSize(data) > 0)
+					buffer.put(data.group.getId());
+				if(data.iterations > 0)
+					buffer.putInt(data.iterations);
+			}
+
+			crc.reset();
+			crc.update(buffer.array(), start + 4, buffer.position() - start - 4);
+			buffer.putInt((int) crc.getValue());
+		}
+
+		buffer.flip();
+		return buffer;
+	}
+
+	private static byte type(PasswordData data) {
+
+		if(data.iterations > 0)
+			return PUT_ITERATED;
+
+		return data.group == SRPGroup.DEFAULT ? PUT : PUT_GROUP;
+	}
+
+	/**
+	 * Switches to the log written by a finished compaction, first appending every record committed
+	 * since the compaction began. If the compaction failed, the current log is kept.
+	 */
+	private void adopt() {
+
+		Compaction done = compaction;
+		compaction = null;
+		FileChannel out = done.out;
+		if(out == null)
+			return;
+
+		try {
+
+			for(long position = done.mark; position < size;)
+				position += channel.transferTo(position, size - position, out);
+
+			out.force(true);
+			Files.move(done.temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException e) {
+
+			done.discard();
+			return;
+		}
+
+		//The new log was opened for writing up front, so the file that was renamed is the one adopted
+		FileChannel old = channel;
+		channel = out;
+		try {
+			size = out.position();
+			old.close();
+		}catch(IOException e) {}
+
+		forceDirectory();
+	}
+
+
+	private void forceDirectory() {
+
+		//Makes the rename durable on file systems that support syncing a directory
+		File parent = path.toAbsolutePath().getParent().toFile();
+		try(FileChannel directory = FileChannel.open(parent.toPath(), StandardOpenOption.READ)) {
+			directory.force(true);
+		}catch(IOException e) {}
+	}
+
+	/**
+	 * A copy of the current record for each user, written to a new log by a background thread. Only
+	 * the commit thread changes the index, and every record committed before the compaction began has
+	 * been applied, so a record missing from or stale in the copy is among the records after the mark.
+	 */
+	private final class Compaction extends Thread {
+
+		final Path temporary = Paths.get(path + ".compact");
+		final long mark; //The end of the log when the compaction began
+		FileChannel out; //The new log, or null if it could not be written
+
+		Compaction(long mark) {
+
+			super("SRP-LogCompactor");
+			setDaemon(true);
+			this.mark = mark;
+		}
+
+		@Override
+		public void run() {
+
+			try {
+
+				out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				CRC32 crc = new CRC32();
+				List<Write> current = new ArrayList<>(maxBatch);
+				Iterator<Map.Entry<String, PasswordData>> iterator = users.entrySet().iterator();
+				while(iterator.hasNext() || !current.isEmpty()) {
+
+					if(iterator.hasNext()) {
+
+						Map.Entry<String, PasswordData> user = iterator.next();
+						current.add(new Write(user.getKey(), user.getValue()));
+						if(current.size() < maxBatch && iterator.hasNext())
+							continue;
+					}
+
+					ByteBuffer buffer = encode(current, crc);
+					while(buffer.hasRemaining())
+						out.write(buffer);
+
+					current.clear();
+				}
+			}catch(IOException e) {
+				discard();
+			}
+
+			pending.add(COMPACTED);
+		}
+
+
+		void discard() {
+
+			try {
+
+				if(out != null)
+					out.close();
+
+				Files.deleteIfExists(temporary);
+			}catch(IOException e) {}
+
+			out = null;
+		}
+	}
+
+	/**
+	 * A change waiting to be committed to the log.
+	 */
+	private static final class Write {
+
+		final String username;
+		final PasswordData data;
+		final CompletableFuture<Void> result = new CompletableFuture<>();
+
+		Write(String username, PasswordData data) {
+
+			this.username = username;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,430 @@
+package me.michael4797.crypto.srp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import me.michael4797.crypto.srp.SRPUser.PasswordData;
+
+/**
+ * A UserManager that stores every user's password salt/verifier in a single memory-mapped file.
+ * The file holds a fixed number of fixed-size records and an open-addressing hash index keyed by
+ * username, so opening the file does not require scanning it, and once the pages are resident a
+ * lookup makes no system calls. Lookups do not lock and may run concurrently with each other and
+ * with a single writer; records are written before they are published through the index.
+ * <p>
+ * Each record holds the id of the group its verifier belongs to and the PBKDF2 iterations it was
+ * derived with, and records are sized for the largest group the store was created for. Stores
+ * written before groups were supported only hold verifiers of the default group, and stores written
+ * before iterations were supported only hold verifiers derived with a single hash.
+ * <p>
+ * A store that was not closed is assumed to have been interrupted mid-write, and its index is
+ * rebuilt from its records the next time it is opened.
+ */
+public class MappedUserManager implements UserManager{
+
+	private static final int MAGIC = 0x53525055; //SRPU
+	private static final int VERSION = 3;
+	private static final int UNGROUPED_VERSION = 1;
+	private static final int UNITERATED_VERSION = 2;
+	private static final int HEADER_SIZE = 64;
+	private static final int SALT_SIZE = 16;
+	private static final int NAME_SIZE = 62;
+	private static final int SLOT_SIZE = 8;
+	private static final int CHUNK_SIZE = 1 << 30;
+	private static final int SLOTS_PER_CHUNK = CHUNK_SIZE/SLOT_SIZE;
+	private static final int MAX_CAPACITY = 1 << 28;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer header;
+	private final MappedByteBuffer[] index;
+	private final MappedByteBuffer[] records;
+	private final int slots;
+	private final int capacity;
+	private final boolean grouped; //False for version 1 stores, whose records have no group id
+	private final boolean iterated; //False for version 1 and 2 stores, whose records have no iterations
+	private final int verifierSize;
+	private final int recordSize;
+	private final int recordsPerChunk;
+	private volatile int count;
+
+	/**
+	 * Opens the specified store, creating it with room for the specified number of records of the
+	 * default group if it does not exist. The capacity of an existing store is read from the file.
+	 * @param path The path of the store.
+	 * @param capacity The number of records a new store can hold. Replacing a user's password data
+	 * uses a new record.
+	 * @throws IOException If the store could not be opened or is not a valid store.
+	 */
+	public MappedUserManager(String path, int capacity) throws IOException {
+
+		this(path, capacity, SRPGroup.DEFAULT);
+	}
+
+	/**
+	 * Opens the specified store, creating it with room for the specified number of records if it
+	 * does not exist. The capacity and record size of an existing store are read from the file.
+	 * @param path The path of the store.
+	 * @param capacity The number of records a new store can hold. Replacing a user's password data
+	 * uses a new record.
+	 * @param largest The largest group whose verifiers a new store can hold.
+	 * @throws IOException If the store could not be opened or is not a valid store.
+	 */
+	public MappedUserManager(String path, int capacity, SRPGroup largest) throws IOException {
+
+		boolean exists = new File(path).exists();
+		this.file = new RandomAccessFile(path, "rw");
+
+		try {
+
+			FileChannel channel = file.getChannel();
+			if(exists) {
+
+				MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+				int version = header.getInt(4);
+				if(header.getInt(0) != MAGIC || version < UNGROUPED_VERSION || version > VERSION)
+					throw new IOException("Not a user store: " + path);
+
+				this.header = header;
+				this.slots = header.getInt(8);
+				this.capacity = header.getInt(12);
+				this.count = header.getInt(16);
+				this.grouped = version >= UNITERATED_VERSION;
+				this.iterated = version >= VERSION;
+				this.verifierSize = grouped ? header.getInt(20) : SRPGroup.DEFAULT.length;
+				if(verifierSize < 1 || verifierSize > CHUNK_SIZE/2 || count < 0 || count > this.capacity)
+					throw new IOException("Not a user store: " + path);
+			}
+			else {
+
+				if(capacity < 1 || capacity > MAX_CAPACITY)
+					throw new IllegalArgumentException("capacity must be between 1 and " + MAX_CAPACITY + ".");
+
+				//Keep the index at most half full so probe sequences stay short
+				this.slots = Integer.highestOneBit(Math.max(1, capacity - 1)) << 2;
+				this.capacity = capacity;
+				this.count = 0;
+				this.grouped = true;
+				this.iterated = true;
+				this.verifierSize = largest.length;
+				this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+				header.putInt(0, MAGIC);
+				header.putInt(4, VERSION);
+				header.putInt(8, slots);
+				header.putInt(12, this.capacity);
+				header.putInt(16, 0);
+				header.putInt(20, verifierSize);
+			}
+
+			this.recordSize = 2 + NAME_SIZE + SALT_SIZE + (grouped ? 1 : 0) + (iterated ? 4 : 0) + verifierSize;
+			this.recordsPerChunk = CHUNK_SIZE/recordSize;
+			long indexSize = (long) slots*SLOT_SIZE;
+			this.index = map(channel, HEADER_SIZE, indexSize, SLOTS_PER_CHUNK*SLOT_SIZE);
+			this.records = map(channel, HEADER_SIZE + indexSize, (long) this.capacity*recordSize, recordsPerChunk*recordSize);
+			if(header.getInt(24) != 0)
+				rebuild();
+
+			//Mark the store open until close, so a crash is detected the next time it is opened
+			header.putInt(24, 1);
+			header.force();
+		}catch(IOException | RuntimeException e) {
+
+			file.close();
+			throw e;
+		}
+	}
+
+
+	@Override
+	public PasswordData getUserData(String username) throws SRPException {
+
+		//Reading the count first makes every record published before it visible
+		int published = count;
+		byte[] name = username.getBytes(StandardCharsets.UTF_8);
+		int record = find(name, hash(name), published);
+		if(record < 0)
+			throw record == -1 ? SRPException.UNKNOWN_USER : SRPException.AUTHENTICATION_FAILED;
+
+		MappedByteBuffer buffer = records[record/recordsPerChunk];
+		int offset = (record%recordsPerChunk)*recordSize + 2 + NAME_SIZE;
+		byte[] salt = new byte[SALT_SIZE];
+		for(int i = 0; i < SALT_SIZE; i++)
+			salt[i] = buffer.get(offset++);
+
+		SRPGroup group = grouped ? SRPGroup.fromId(buffer.get(offset++)) : SRPGroup.DEFAULT;
+		int iterations = 0;
+		if(iterated) {
+
+			iterations = buffer.getInt(offset);
+			offset += 4;
+		}
+
+		if(group == null || group.length > verifierSize || iterations < 0)
+			throw SRPException.AUTHENTICATION_FAILED;
+
+		byte[] verifier = new byte[group.length];
+		for(int i = 0; i < verifier.length; i++)
+			verifier[i] = buffer.get(offset++);
+
+		return new PasswordData(salt, verifier, group, iterations);
+	}
+
+	/**
+	 * Stores the password data for the specified user, replacing any existing data.
+	 * @param username The user whose password data is being stored.
+	 * @param data The password salt/verifier.
+	 * @throws IOException If the store is full or the data does not fit in a record.
+	 */
+	public synchronized void setUserData(String username, PasswordData data) throws IOException {
+
+		byte[] name = username.getBytes(StandardCharsets.UTF_8);
+		if(name.length > NAME_SIZE)
+			throw new IOException("Username is longer than " + NAME_SIZE + " bytes: " + username);
+		if(data.salt.length != SALT_SIZE || data.verifier.length != data.group.length)
+			throw new IOException("Password data must be a " + SALT_SIZE + " byte salt and a verifier padded to its group.");
+		if(data.group.length > verifierSize || (!grouped && data.group != SRPGroup.DEFAULT))
+			throw new IOException("User store cannot hold verifiers of " + data.group + ".");
+		if(!iterated && data.iterations != 0)
+			throw new IOException("User store cannot hold verifiers derived with PBKDF2.");
+		if(count == capacity)
+			throw new IOException("User store is full.");
+
+		int record = count;
+		MappedByteBuffer buffer = records[record/recordsPerChunk];
+		int offset = (record%recordsPerChunk)*recordSize;
+		buffer.putShort(offset, (short) name.length);
+		for(int i = 0; i < name.length; i++)
+			buffer.put(offset + 2 + i, name[i]);
+
+		offset += 2 + NAME_SIZE;
+		for(int i = 0; i < SALT_SIZE; i++)
+			buffer.put(offset++, data.salt[i]);
+		if(grouped)
+			buffer.put(offset++, data.group.getId());
+		if(iterated) {
+
+			buffer.putInt(offset, data.iterations);
+			offset += 4;
+		}
+		for(int i = 0; i < data.verifier.length; i++)
+			buffer.put(offset++, data.verifier[i]);
+
+		//Publish the record before any slot points at it, so a reader never finds an unpublished record
+		header.putInt(16, record + 1);
+		count = record + 1;
+		index(name, record);
+	}
+
+	/**
+	 * Returns the number of records used, including records replaced by newer password data.
+	 * @return The number of used records.
+	 */
+	public int getRecordCount() {
+
+		return count;
+	}
+
+	/**
+	 * Writes any changes to the storage device.
+	 */
+	public synchronized void flush() {
+
+		for(MappedByteBuffer buffer : records)
+			buffer.force();
+		for(MappedByteBuffer buffer : index)
+			buffer.force();
+
+		header.force();
+	}
+
+	/**
+	 * Flushes any changes and closes the store.
+	 * @throws IOException If the store could not be closed.
+	 */
+	public synchronized void close() throws IOException {
+
+		flush();
+		header.putInt(24, 0);
+		header.force();
+		file.close();
+	}
+
+	/**
+	 * Copies every user from a {@link BaseUserManager} directory into a new store.
+	 * @param directory The directory containing the user key files.
+	 * @param path The path of the new store, which must not exist.
+	 * @param capacity The number of records the new store can hold, which must be at least the
+	 * number of users in the directory.
+	 * @return The new store.
+	 * @throws IOException If a key file could not be read or the store could not be written.
+	 */
+	public static MappedUserManager convert(String directory, String path, int capacity) throws IOException {
+
+		return convert(directory, path, capacity, SRPGroup.DEFAULT);
+	}
+
+	/**
+	 * Copies every user from a {@link BaseUserManager} directory into a new store.
+	 * @param directory The directory containing the user key files.
+	 * @param path The path of the new store, which must not exist.
+	 * @param capacity The number of records the new store can hold, which must be at least the
+	 * number of users in the directory.
+	 * @param largest The largest group of the users in the directory.
+	 * @return The new store.
+	 * @throws IOException If a key file could not be read or the store could not be written.
+	 */
+	public static MappedUserManager convert(String directory, String path, int capacity, SRPGroup largest) throws IOException {
+
+		if(new File(path).exists())
+			throw new IOException("Store already exists: " + path);
+
+		File[] keys = new File(directory).listFiles((dir, name) -> name.endsWith(".key"));
+		if(keys == null)
+			throw new IOException("Not a directory: " + directory);
+
+		BaseUserManager source = new BaseUserManager(directory);
+		MappedUserManager store = new MappedUserManager(path, capacity, largest);
+		try {
+
+			for(File key : keys) {
+
+				String username = key.getName().substring(0, key.getName().length() - 4);
+				try {
+					store.setUserData(username, source.getUserData(username));
+				}catch(SRPException e) {
+					throw new IOException("Unable to read " + key, e);
+				}
+			}
+
+			store.flush();
+			return store;
+		}catch(IOException e) {
+
+			store.close();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Returns the user's record, -1 if the user does not exist, or -2 if the user's slot points at
+	 * a record that has not been published.
+	 */
+	private int find(byte[] name, int hash, int published) {
+
+		int slot = hash & (slots - 1);
+		while(true) {
+
+			int record = slotRecord(slot);
+			if(record < 0)
+				return -1;
+
+			//The writer publishes a record before its slot, so re-reading the count once is enough
+			if(record >= published && record >= (published = count))
+				return -2;
+
+			if(slotHash(slot) == hash && matches(record, name))
+				return record;
+
+			slot = (slot + 1) & (slots - 1);
+		}
+	}
+
+
+	private void index(byte[] name, int record) {
+
+		//Point the user's slot at the record, claiming an empty slot for a new user
+		int hash = hash(name);
+		int slot = hash & (slots - 1);
+		while(true) {
+
+			int existing = slotRecord(slot);
+			if(existing < 0 || (slotHash(slot) == hash && matches(existing, name)))
+				break;
+
+			slot = (slot + 1) & (slots - 1);
+		}
+
+		MappedByteBuffer buffer = index[slot/SLOTS_PER_CHUNK];
+		int offset = (slot%SLOTS_PER_CHUNK)*SLOT_SIZE;
+		buffer.putInt(offset, hash);
+		buffer.putInt(offset + 4, record + 1);
+	}
+
+
+	private void rebuild() {
+
+		//Slots may point at records that were never published, so index the published records again
+		for(int slot = 0; slot < slots; slot++)
+			index[slot/SLOTS_PER_CHUNK].putLong((slot%SLOTS_PER_CHUNK)*SLOT_SIZE, 0);
+
+		for(int record = 0; record < count; record++) {
+
+			MappedByteBuffer buffer = records[record/recordsPerChunk];
+			int offset = (record%recordsPerChunk)*recordSize;
+			int length = buffer.getShort(offset);
+			if(length < 1 || length > NAME_SIZE)
+				continue;
+
+			byte[] name = new byte[length];
+			for(int i = 0; i < length; i++)
+				name[i] = buffer.get(offset + 2 + i);
+
+			index(name, record);
+		}
+	}
+
+
+	private int slotRecord(int slot) {
+
+		return index[slot/SLOTS_PER_CHUNK].getInt((slot%SLOTS_PER_CHUNK)*SLOT_SIZE + 4) - 1;
+	}
+
+
+	private int slotHash(int slot) {
+
+		return index[slot/SLOTS_PER_CHUNK].getInt((slot%SLOTS_PER_CHUNK)*SLOT_SIZE);
+	}
+
+
+	private boolean matches(int record, byte[] name) {
+
+		MappedByteBuffer buffer = records[record/recordsPerChunk];
+		int offset = (record%recordsPerChunk)*recordSize;
+		if(buffer.getShort(offset) != name.length)
+			return false;
+
+		for(int i = 0; i < name.length; i++)
+			if(buffer.get(offset + 2 + i) != name[i])
+				return false;
+
+		return true;
+	}
+
+
+	private static int hash(byte[] name) {
+
+		//FNV-1a, which unlike String.hashCode is defined over the stored bytes
+		int hash = 0x811C9DC5;
+		for(byte b : name)
+			hash = (hash ^ (b & 255))*0x01000193;
+
+		return hash ^ (hash >>> 16);
+	}
+
+
+	private static MappedByteBuffer[] map(FileChannel channel, long start, long size, int chunk) throws IOException {
+
+		MappedByteBuffer[] buffers = new MappedByteBuffer[(int) Math.max(1, (size + chunk - 1)/chunk)];
+		for(int i = 0; i < buffers.length; i++) {
+
+			long offset = (long) i*chunk;
+			buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, start + offset, Math.min(chunk, size - offset));
+		}
+
+		return buffers;
+	}
+}
@@ -10,16 +10,8 @@ import java.security.SecureRandom;
  */
 class SRP {
 	
-	private static final SecureRandom random = new SecureRandom();
-	static final BigInteger g = new BigInteger("2"); //Generator
-	static final BigInteger N = new BigInteger("AC6BDB41324A9A9BF166DE5E1389582FAF72B6651987EE07FC3192943DB56050A37329CBB4"+
-													   "A099ED8193E0757767A13DD52312AB4B03310DCD7F48A9DA04FD50E8083969EDB767B0CF60"+
-													   "95179A163AB3661A05FBD5FAAAE82918A9962F0B93B855F97993EC975EEAA80D740ADBF4FF"+
-													   "747359D041D5C33EA71D281E446B14773BCA97B43A23FB801676BD207A436C6481F1D2B907"+
-													   "8717461A5B9D32E688F87748544523B524B0D57D5EA77A2775D2ECFA032CFBDBF52FB37861"+
-													   "60279004E57AE6AF874E7303CE53299CCC041C7BC308D82A5698F3A8D0C38271AE35F8E9DB"+
-													   "FBB694B5C803D89F7AE435DE236D525F54759B65E372FCD68EF20FA7111F9E4AFF73", 16); //Large prime
-	static final BigInteger k = fromByteArray(hash(padToN(N), padToN(g))); //Multiplier
+	private static volatile SecureRandom random = new SecureRandom();
+	private static final byte[] zeros = new byte[256];
 
 	/**
 	 * Pads the specified array to the specified length by prepending the
@@ -44,13 +36,26 @@ class SRP {
 	}
 
 	/**
-	 * Converts the specified BigInteger to a byte array, then pads it to the length of N.
+	 * Converts the specified BigInteger to a byte array, then pads it to the specified length. Only
+	 * one array is allocated beyond the one built by the BigInteger itself.
 	 * @param number The BigInteger to be converted and padded.
-	 * @return A new byte array that represents the specified BigInteger and is the same length as N.
+	 * @param len The desired length of the array.
+	 * @return A new byte array that represents the specified BigInteger and has the specified length.
 	 */
-	static byte[] padToN(BigInteger number) {
-				
-		return padTo(toByteArray(number), 256);
+	static byte[] padTo(BigInteger number, int len) {
+		
+		byte[] bytes = number.toByteArray();
+		int offset = signOffset(bytes);
+		int length = bytes.length - offset;
+		if(length > len)
+			throw new IllegalArgumentException("number must not be longer than len.");
+		
+		if(offset == 0 && length == len)
+			return bytes;
+		
+		byte[] result = new byte[len];
+		System.arraycopy(bytes, offset, result, len - length, length);
+		return result;
 	}
 		
 	/**
@@ -61,15 +66,8 @@ class SRP {
 	 */
 	static BigInteger fromByteArray(byte[] bytes){
 		
-		byte[] b = bytes;
-		if(b[0] < 0){
-		
-			b = new byte[bytes.length+1];
-			for(int i = 0; i < bytes.length; i++)
-				b[i+1] = bytes[i];
-		}
-		
-		return new BigInteger(b);
+		//Reading the array as a magnitude avoids copying it to prepend a sign byte
+		return new BigInteger(1, bytes);
 	}
 	
 	/**
@@ -109,6 +107,25 @@ class SRP {
 		return data;
 	}
 	
+	/**
+	 * Replaces the secure random number generator with one seeded from the specified value, so that
+	 * every random value generated afterwards is reproducible. This is only intended for benchmarks
+	 * that must be comparable between runs, and must never be used for real authentication.
+	 * @param seed The seed.
+	 */
+	static void useDeterministicRandom(long seed){
+		
+		try {
+			
+			SecureRandom deterministic = SecureRandom.getInstance("SHA1PRNG");
+			deterministic.setSeed(seed);
+			random = deterministic;
+		} catch (NoSuchAlgorithmException e) {
+
+			throw new RuntimeException(e);
+		}
+	}
+	
 	/**
 	 * Converts a String into a byte array, one char per byte, so that it may be hashed.
 	 * @param string The string to convert.
@@ -123,66 +140,96 @@ class SRP {
 	}
 	
 	/**
-	 * Calculates the proof of session key value from the identifier, salt, ephemeral, and
-	 * session key values.
-	 * @param I The identifier.
-	 * @param s The salt.
-	 * @param A The client ephemeral.
-	 * @param B The server ephemeral.
-	 * @param K The session key.
-	 * @return The proof of session key.
+	 * Hashes the specified byte arrays using SHA-256 and returns the result.
+	 * @param updates The data to be hashed.
+	 * @return The digested hash.
 	 */
-	static byte[] getM(String I, byte[] s, byte[] A, byte[] B, byte[] K){
+	static byte[] hash(byte[]... updates){
 		
-		byte[] hN = hash(toByteArray(N));
-		byte[] hG = hash(toByteArray(g));
-		byte[] hI = hash(toByteArray(I));
-		byte[] hX = new byte[hN.length];
-		for(int i = 0; i < hX.length; i++)
-			hX[i] = (byte) (hN[i]^hG[i]);
+		return SRPDigest.SHA_256.hash(updates);
+	}
+	
+	/**
+	 * Hashes the specified BigInteger after padding it to the specified length. This is equivalent
+	 * to <code>hash(padTo(number, len))</code> without building the padded array.
+	 * @param md The digest to hash the number with, which must be reset.
+	 * @param number The BigInteger to be hashed.
+	 * @param len The padded length of the number.
+	 * @return The digested hash.
+	 */
+	static byte[] hashPadded(MessageDigest md, BigInteger number, int len){
 		
-		return hash(hX, hI, s, A, B, K);
+		byte[] bytes = number.toByteArray();
+		int offset = signOffset(bytes);
+		updatePadded(md, bytes, offset, bytes.length - offset, len);
+		return md.digest();
 	}
 	
 	/**
-	 * Calculates the random scrambling parameter from the given ephemeral values.
-	 * @param A The client ephemeral.
-	 * @param B The server ephemeral.
-	 * @return The random scrambling parameter.
+	 * Feeds the specified array into the digest as if it had been padded to the specified
+	 * length by prepending 0's.
+	 * @param md The digest to update.
+	 * @param n The array to be hashed.
+	 * @param len The padded length of the array.
 	 */
-	static BigInteger getU(byte[] A, byte[] B){
-		
-	    byte[] uBytes = new byte[512];
-	    
-	    int offset = 256-A.length;
-	    for(int i = 0; i < A.length; i++)
-	    	uBytes[i+offset] = A[i];
-	    
-	    offset = 512-B.length;
-	    for(int i = 0; i < B.length; i++)
-	    	uBytes[i+offset] = B[i];
-	    
-	    byte[] hash = hash(uBytes);
-	    return fromByteArray(hash);
+	static void updatePadded(MessageDigest md, byte[] n, int len){
+		
+		updatePadded(md, n, 0, n.length, len);
 	}
 	
 	/**
-	 * Hashes the specified byte arrays using SHA-256 and returns the result.
-	 * @param updates The data to be hashed.
-	 * @return The digested hash.
+	 * Feeds part of the specified array into the digest as if it had been padded to the specified
+	 * length by prepending 0's.
+	 * @param md The digest to update.
+	 * @param n The array containing the value to be hashed.
+	 * @param offset The start of the value in the array.
+	 * @param length The length of the value.
+	 * @param len The padded length of the value.
 	 */
-	static byte[] hash(byte[]... updates){
+	static void updatePadded(MessageDigest md, byte[] n, int offset, int length, int len){
 		
-		try {
-			
-			MessageDigest md = MessageDigest.getInstance("SHA-256");
-			for(int i = 0; i < updates.length; i++)
-				md.update(updates[i]);
+		int padding = len - length;
+		if(padding < 0)
+			throw new IllegalArgumentException("len must be greater than or equal to the length of n.");
+		
+		while(padding > 0) {
 			
-			return md.digest();
-		} catch (NoSuchAlgorithmException e) {
-
-			throw new RuntimeException(e);
+			int chunk = Math.min(padding, zeros.length);
+			md.update(zeros, 0, chunk);
+			padding -= chunk;
 		}
+		
+		md.update(n, offset, length);
+	}
+	
+	/**
+	 * Retrieves this thread's SHA-256 digest, reset and ready for use. The digest is reused
+	 * by every hash computed on the calling thread, so it must be finished before another
+	 * hash is started.
+	 * @return The calling thread's digest.
+	 */
+	static MessageDigest digest(){
+		
+		return SRPDigest.SHA_256.digest();
+	}
+	
+	
+	/**
+	 * Returns 1 if the array produced by {@link BigInteger#toByteArray()} for a positive number
+	 * starts with a sign byte that is not part of the magnitude, otherwise 0.
+	 */
+	private static int signOffset(byte[] bytes){
+		
+		return bytes.length > 1 && bytes[0] == 0 ? 1 : 0;
+	}
+	
+	
+	static byte[] xor(byte[] a, byte[] b){
+		
+		byte[] result = new byte[a.length];
+		for(int i = 0; i < result.length; i++)
+			result[i] = (byte) (a[i]^b[i]);
+		
+		return result;
 	}
 }
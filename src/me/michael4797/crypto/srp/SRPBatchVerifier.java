@@ -0,0 +1,196 @@
+package me.michael4797.crypto.srp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects server ephemeral and proof computations from many {@link SRPServer SRPServers}
+ * and dispatches them together to a {@link ForkJoinPool}. A computation is never held back to wait
+ * for others: the first one submitted schedules a dispatch, and every computation submitted before
+ * that dispatch reaches a worker joins its batch. Each batch is then split into one contiguous run
+ * per worker, which computes its jobs one at a time. The computations themselves are unchanged;
+ * batching only replaces a task submission per computation with one per batch when the pool is busy.
+ */
+public class SRPBatchVerifier {
+
+	private final ForkJoinPool pool;
+	private final int maxBatch;
+	private final ConcurrentLinkedQueue<Job<?>> pending = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	/**
+	 * Creates a new SRPBatchVerifier.
+	 * @param pool The pool used to run batches.
+	 * @param maxBatch The largest number of computations dispatched as a single batch.
+	 */
+	public SRPBatchVerifier(ForkJoinPool pool, int maxBatch) {
+
+		if(maxBatch < 1)
+			throw new IllegalArgumentException("maxBatch must be positive.");
+
+		this.pool = pool;
+		this.maxBatch = maxBatch;
+	}
+
+	/**
+	 * Queues the generation of the server ephemeral for the specified server.
+	 * @param server The server whose ephemeral is needed.
+	 * @return A future that completes with the server ephemeral.
+	 * @see SRPServer#getB()
+	 */
+	public CompletableFuture<byte[]> getB(SRPServer server) {
+
+		return submit(new Job<byte[]>() {
+
+			@Override
+			byte[] compute() {
+
+				return server.getB();
+			}
+		});
+	}
+
+	/**
+	 * Queues the derivation of the session key for the specified server.
+	 * @param server The server whose session key is needed.
+	 * @return A future that completes once the key has been derived.
+	 * @see SRPServer#deriveKey()
+	 */
+	public CompletableFuture<Void> deriveKey(SRPServer server) {
+
+		return submit(new Job<Void>() {
+
+			@Override
+			Void compute() throws SRPException {
+
+				server.deriveKey();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Queues the verification of the client's proof for the specified server.
+	 * @param server The server verifying the client.
+	 * @param M The client's proof.
+	 * @return A future that completes with the server's proof, or completes exceptionally
+	 * with the {@link SRPException} thrown if the authentication failed.
+	 * @see SRPServer#getHAMK(byte[])
+	 */
+	public CompletableFuture<byte[]> getHAMK(SRPServer server, byte[] M) {
+
+		return submit(new Job<byte[]>() {
+
+			@Override
+			byte[] compute() throws SRPException {
+
+				return server.getHAMK(M);
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of computations waiting for their batch to be dispatched.
+	 * @return The number of waiting computations.
+	 */
+	public int getPending() {
+
+		return size.get();
+	}
+
+
+	private <T> CompletableFuture<T> submit(Job<T> job) {
+
+		pending.add(job);
+		size.incrementAndGet();
+		if(scheduled.compareAndSet(false, true))
+			pool.execute(this::flush);
+
+		return job.result;
+	}
+
+
+	private void flush() {
+
+		//Cleared before draining, so a computation the drain misses schedules another dispatch
+		scheduled.set(false);
+		while(size.get() > 0) {
+
+			List<Job<?>> batch = new ArrayList<>(Math.min(size.get(), maxBatch));
+			Job<?> job;
+			while(batch.size() < maxBatch && (job = pending.poll()) != null)
+				batch.add(job);
+
+			if(batch.isEmpty())
+				return;
+
+			size.addAndGet(-batch.size());
+			int chunk = Math.max(1, (batch.size() + pool.getParallelism() - 1)/pool.getParallelism());
+			pool.execute(new Batch(batch, 0, batch.size(), chunk));
+		}
+	}
+
+	/**
+	 * Splits a batch until each piece is small enough for a single worker.
+	 */
+	private static final class Batch extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private final List<Job<?>> jobs;
+		private final int from, to, chunk;
+
+		Batch(List<Job<?>> jobs, int from, int to, int chunk) {
+
+			this.jobs = jobs;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected void compute() {
+
+			if(to - from <= chunk) {
+
+				for(int i = from; i < to; i++)
+					jobs.get(i).run();
+
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			invokeAll(new Batch(jobs, from, middle, chunk), new Batch(jobs, middle, to, chunk));
+		}
+	}
+
+	/**
+	 * A single computation and the future waiting for its result.
+	 */
+	private static abstract class Job<T> {
+
+		final CompletableFuture<T> result = new CompletableFuture<>();
+
+		abstract T compute() throws SRPException;
+
+		void run() {
+
+			try {
+
+				result.complete(compute());
+			}catch(SRPException e) {
+
+				result.completeExceptionally(e);
+			}catch(RuntimeException e) {
+
+				result.completeExceptionally(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package me.michael4797.crypto.srp;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The hash functions SRP can be computed with. The digest is part of a user's {@link SRPGroup}, since
+ * the verifier is derived with it. Each thread keeps its own instance of every digest, and values
+ * that begin with a prefix fixed for the group or the user start from a copy of a digest that has
+ * already absorbed the prefix instead of hashing it again.
+ */
+public enum SRPDigest {
+
+	/**
+	 * SHA-256, the digest used by every version of this library.
+	 */
+	SHA_256("SHA-256"),
+
+	/**
+	 * SHA-512/256, which computes SHA-512 truncated to 256 bits and is faster than SHA-256 on
+	 * 64 bit processors without SHA extensions. Requires Java 9 or later.
+	 */
+	SHA_512_256("SHA-512/256"),
+
+	/**
+	 * SHA-384, SHA-512 truncated to 384 bits.
+	 */
+	SHA_384("SHA-384");
+
+	private final String algorithm;
+	private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(this::newDigest);
+	private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+
+	private SRPDigest(String algorithm) {
+
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * Returns the name of the JDK algorithm implementing this digest.
+	 * @return The algorithm name.
+	 */
+	public String getAlgorithm() {
+
+		return algorithm;
+	}
+
+	/**
+	 * Returns the length of the hashes produced by this digest.
+	 * @return The length in bytes.
+	 */
+	public int getLength() {
+
+		return digests.get().getDigestLength();
+	}
+
+	/**
+	 * Retrieves this thread's instance of the digest, reset and ready for use. The instance is reused
+	 * by every hash computed on the calling thread, so it must be finished before another hash is started.
+	 * @return The calling thread's digest.
+	 */
+	MessageDigest digest() {
+
+		MessageDigest md = digests.get();
+		md.reset();
+		return md;
+	}
+
+	/**
+	 * Hashes the specified byte arrays and returns the result.
+	 * @param updates The data to be hashed.
+	 * @return The digested hash.
+	 */
+	byte[] hash(byte[]... updates) {
+
+		MessageDigest md = digest();
+		for(int i = 0; i < updates.length; i++)
+			md.update(updates[i]);
+
+		return md.digest();
+	}
+
+	/**
+	 * Creates a digest that has absorbed the specified prefix, to be {@link #resume(MessageDigest) resumed}
+	 * by every hash that begins with it.
+	 * @param prefix The data every such hash begins with.
+	 * @return The digest, which must not be updated.
+	 */
+	MessageDigest prefix(byte[]... prefix) {
+
+		MessageDigest md = newDigest();
+		for(int i = 0; i < prefix.length; i++)
+			md.update(prefix[i]);
+
+		return md;
+	}
+
+	/**
+	 * Copies a digest created by {@link #prefix(byte[]...)}, so the hash can continue without
+	 * hashing the prefix again.
+	 * @param prefix The digest holding the prefix.
+	 * @return A new digest in the same state.
+	 */
+	MessageDigest resume(MessageDigest prefix) {
+
+		try {
+
+			return (MessageDigest) prefix.clone();
+		} catch (CloneNotSupportedException e) {
+
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Derives a key the length of this digest with PBKDF2, using HMAC with this digest as the
+	 * pseudorandom function. The intermediate values are kept in a single array, so the iterations
+	 * allocate nothing.
+	 * @param password The password, which is used as the HMAC key.
+	 * @param salt The salt.
+	 * @param iterations The number of iterations, which must be positive.
+	 * @return The derived key.
+	 */
+	byte[] pbkdf2(byte[] password, byte[] salt, int iterations) {
+
+		try {
+
+			Mac mac = macs.get();
+			mac.init(new SecretKeySpec(password, mac.getAlgorithm()));
+			mac.update(salt);
+			mac.update(new byte[] {0, 0, 0, 1});
+			byte[] u = mac.doFinal();
+			byte[] t = u.clone();
+			for(int i = 1; i < iterations; i++) {
+
+				mac.update(u);
+				mac.doFinal(u, 0);
+				for(int j = 0; j < t.length; j++)
+					t[j] ^= u[j];
+			}
+
+			return t;
+		} catch (GeneralSecurityException e) {
+
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	private MessageDigest newDigest() {
+
+		try {
+
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	private Mac newMac() {
+
+		try {
+
+			return Mac.getInstance("Hmac" + algorithm.replace("-", ""));
+		} catch (NoSuchAlgorithmException e) {
+
+			throw new RuntimeException(e);
+		}
+	}
+}
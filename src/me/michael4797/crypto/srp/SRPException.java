@@ -1,28 +1,39 @@
 package me.michael4797.crypto.srp;
 
 /**
- * The super class for all SRPExceptions thrown during an authentication attempt.
+ * The super class for all SRPExceptions thrown during an authentication attempt. SRPExceptions only
+ * report the outcome of an attempt, so they do not capture a stack trace, and the shared instances
+ * below can be thrown instead of allocating a new exception for every rejected attempt.
  */
 public abstract class SRPException extends Throwable{
 
 	private static final long serialVersionUID = 1L;
-	public SRPException(){}
-	public static SRPException fromByte(byte id){
+	
+	public static final AuthenticationFailedException AUTHENTICATION_FAILED = new AuthenticationFailedException();
+	public static final IncorrectProtocolException INCORRECT_PROTOCOL = new IncorrectProtocolException();
+	public static final UserAlreadyExistsException USER_ALREADY_EXISTS = new UserAlreadyExistsException();
+	public static final ServerBusyException SERVER_BUSY = new ServerBusyException();
+	public static final HandshakeTimeoutException HANDSHAKE_TIMEOUT = new HandshakeTimeoutException();
+	public static final UnknownUserException UNKNOWN_USER = new UnknownUserException();
+	
+	//Indexed by error id
+	private static final SRPException[] errors = {AUTHENTICATION_FAILED, INCORRECT_PROTOCOL, USER_ALREADY_EXISTS, SERVER_BUSY, HANDSHAKE_TIMEOUT};
+	
+	public SRPException(){
 		
-		for(Class<?> clazz : SRPException.class.getDeclaredClasses()){
-			
-			SRPException exception;
-			try {
-				exception = clazz.asSubclass(SRPException.class).newInstance();
-			} catch (Exception e){
-				throw new RuntimeException("Error error", e);
-			}
-			if(exception.getError() == id)
-				return exception;
-		}
+		super(null, null, false, false);
+	}
+	
+	/**
+	 * Returns the shared exception for the specified error id.
+	 * @param id The error id, as returned by {@link #getError()}.
+	 * @return The exception, or null if the id is unknown.
+	 */
+	public static SRPException fromByte(byte id){
 		
-		return null;
+		return id >= 0 && id < errors.length ? errors[id] : null;
 	}
+	
 	public abstract byte getError();
 	
 	/**
@@ -61,4 +72,37 @@ public abstract class SRPException extends Throwable{
 			return id;
 		}			
 	}
+	
+	/**
+	 * Thrown if the server is too busy to process an authentication attempt.
+	 */
+	public static class ServerBusyException extends SRPException{
+		private static final long serialVersionUID = 1L;
+		public static final byte id = 3;
+		@Override
+		public byte getError() {
+			return id;
+		}			
+	}
+	
+	/**
+	 * Thrown by a UserManager that has confirmed the requested user does not exist, as opposed to
+	 * failing to read the user's password data. It is reported to the client as a failed
+	 * authentication, so the client cannot tell unknown users apart from wrong passwords.
+	 */
+	public static class UnknownUserException extends AuthenticationFailedException{
+		private static final long serialVersionUID = 1L;
+	}
+	
+	/**
+	 * Thrown if an authentication attempt did not finish within the allowed time.
+	 */
+	public static class HandshakeTimeoutException extends SRPException{
+		private static final long serialVersionUID = 1L;
+		public static final byte id = 4;
+		@Override
+		public byte getError() {
+			return id;
+		}			
+	}
 }
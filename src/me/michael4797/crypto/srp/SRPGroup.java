@@ -0,0 +1,382 @@
+package me.michael4797.crypto.srp;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+
+/**
+ * The parameters of an SRP group: a safe prime N and a generator g, along with every value derived
+ * from them that SRP needs. Each of the groups from RFC 5054 is a shared constant, so the multiplier
+ * k, H(N) xor H(g) and the padded width of N are computed once per group, and the table of powers
+ * of g is built the first time the group is used. Larger groups are more expensive for both the
+ * client and the server; a user's verifier belongs to the group it was created with, so the group
+ * is stored with the user's password data.
+ * <p>
+ * The constants hash with SHA-256. The same primes can be used with another {@link SRPDigest}
+ * through {@link #withDigest(SRPDigest)}; the variants share the arithmetic of their prime, and
+ * the digest is part of the group's id.
+ */
+public final class SRPGroup {
+
+	public static final SRPGroup RFC5054_1024 = new SRPGroup(SRPDigest.SHA_256, (byte) 1, 2,
+			"EEAF0AB9ADB38DD69C33F80AFA8FC5E86072618775FF3C0B9EA2314C9C256576D674DF7496" +
+			"EA81D3383B4813D692C6E0E0D5D8E250B98BE48E495C1D6089DAD15DC7D7B46154D6B6CE8E" +
+			"F4AD69B15D4982559B297BCF1885C529F566660E57EC68EDBC3C05726CC02FD4CBF4976EAA" +
+			"9AFD5138FE8376435B9FC61D2FC0EB06E3");
+
+	public static final SRPGroup RFC5054_1536 = new SRPGroup(SRPDigest.SHA_256, (byte) 2, 2,
+			"9DEF3CAFB939277AB1F12A8617A47BBBDBA51DF499AC4C80BEEEA9614B19CC4D5F4F5F556E" +
+			"27CBDE51C6A94BE4607A291558903BA0D0F84380B655BB9A22E8DCDF028A7CEC67F0D08134" +
+			"B1C8B97989149B609E0BE3BAB63D47548381DBC5B1FC764E3F4B53DD9DA1158BFD3E2B9C8C" +
+			"F56EDF019539349627DB2FD53D24B7C48665772E437D6C7F8CE442734AF7CCB7AE837C264A" +
+			"E3A9BEB87F8A2FE9B8B5292E5A021FFF5E91479E8CE7A28C2442C6F315180F93499A234DCF" +
+			"76E3FED135F9BB");
+
+	public static final SRPGroup RFC5054_2048 = new SRPGroup(SRPDigest.SHA_256, (byte) 3, 2,
+			"AC6BDB41324A9A9BF166DE5E1389582FAF72B6651987EE07FC3192943DB56050A37329CBB4" +
+			"A099ED8193E0757767A13DD52312AB4B03310DCD7F48A9DA04FD50E8083969EDB767B0CF60" +
+			"95179A163AB3661A05FBD5FAAAE82918A9962F0B93B855F97993EC975EEAA80D740ADBF4FF" +
+			"747359D041D5C33EA71D281E446B14773BCA97B43A23FB801676BD207A436C6481F1D2B907" +
+			"8717461A5B9D32E688F87748544523B524B0D57D5EA77A2775D2ECFA032CFBDBF52FB37861" +
+			"60279004E57AE6AF874E7303CE53299CCC041C7BC308D82A5698F3A8D0C38271AE35F8E9DB" +
+			"FBB694B5C803D89F7AE435DE236D525F54759B65E372FCD68EF20FA7111F9E4AFF73");
+
+	public static final SRPGroup RFC5054_3072 = new SRPGroup(SRPDigest.SHA_256, (byte) 4, 5,
+			"FFFFFFFFFFFFFFFFADF85458A2BB4A9AAFDC5620273D3CF1D8B9C583CE2D3695A9E1364114" +
+			"6433FBCC939DCE249B3EF97D2FE363630C75D8F681B202AEC4617AD3DF1ED5D5FD65612433" +
+			"F51F5F066ED0856365553DED1AF3B557135E7F57C935984F0C70E0E68B77E2A689DAF3EFE8" +
+			"721DF158A136ADE73530ACCA4F483A797ABC0AB182B324FB61D108A94BB2C8E3FBB96ADAB7" +
+			"60D7F4681D4F42A3DE394DF4AE56EDE76372BB190B07A7C8EE0A6D709E02FCE1CDF7E2ECC0" +
+			"3404CD28342F619172FE9CE98583FF8E4F1232EEF28183C3FE3B1B4C6FAD733BB5FCBC2EC2" +
+			"2005C58EF1837D1683B2C6F34A26C1B2EFFA886B4238611FCFDCDE355B3B6519035BBC34F4" +
+			"DEF99C023861B46FC9D6E6C9077AD91D2691F7F7EE598CB0FAC186D91CAEFE130985139270" +
+			"B4130C93BC437944F4FD4452E2D74DD364F2E21E71F54BFF5CAE82AB9C9DF69EE86D2BC522" +
+			"363A0DABC521979B0DEADA1DBF9A42D5C4484E0ABCD06BFA53DDEF3C1B20EE3FD59D7C25E4" +
+			"1D2B66C62E37FFFFFFFFFFFFFFFF");
+
+	public static final SRPGroup RFC5054_4096 = new SRPGroup(SRPDigest.SHA_256, (byte) 5, 5,
+			"FFFFFFFFFFFFFFFFADF85458A2BB4A9AAFDC5620273D3CF1D8B9C583CE2D3695A9E1364114" +
+			"6433FBCC939DCE249B3EF97D2FE363630C75D8F681B202AEC4617AD3DF1ED5D5FD65612433" +
+			"F51F5F066ED0856365553DED1AF3B557135E7F57C935984F0C70E0E68B77E2A689DAF3EFE8" +
+			"721DF158A136ADE73530ACCA4F483A797ABC0AB182B324FB61D108A94BB2C8E3FBB96ADAB7" +
+			"60D7F4681D4F42A3DE394DF4AE56EDE76372BB190B07A7C8EE0A6D709E02FCE1CDF7E2ECC0" +
+			"3404CD28342F619172FE9CE98583FF8E4F1232EEF28183C3FE3B1B4C6FAD733BB5FCBC2EC2" +
+			"2005C58EF1837D1683B2C6F34A26C1B2EFFA886B4238611FCFDCDE355B3B6519035BBC34F4" +
+			"DEF99C023861B46FC9D6E6C9077AD91D2691F7F7EE598CB0FAC186D91CAEFE130985139270" +
+			"B4130C93BC437944F4FD4452E2D74DD364F2E21E71F54BFF5CAE82AB9C9DF69EE86D2BC522" +
+			"363A0DABC521979B0DEADA1DBF9A42D5C4484E0ABCD06BFA53DDEF3C1B20EE3FD59D7C25E4" +
+			"1D2B669E1EF16E6F52C3164DF4FB7930E9E4E58857B6AC7D5F42D69F6D187763CF1D550340" +
+			"0487F55BA57E31CC7A7135C886EFB4318AED6A1E012D9E6832A907600A918130C46DC778F9" +
+			"71AD0038092999A333CB8B7A1A1DB93D7140003C2A4ECEA9F98D0ACC0A8291CDCEC97DCF8E" +
+			"C9B55A7F88A46B4DB5A851F44182E1C68A007E5E655F6AFFFFFFFFFFFFFFFF");
+
+	public static final SRPGroup RFC5054_6144 = new SRPGroup(SRPDigest.SHA_256, (byte) 6, 5,
+			"FFFFFFFFFFFFFFFFADF85458A2BB4A9AAFDC5620273D3CF1D8B9C583CE2D3695A9E1364114" +
+			"6433FBCC939DCE249B3EF97D2FE363630C75D8F681B202AEC4617AD3DF1ED5D5FD65612433" +
+			"F51F5F066ED0856365553DED1AF3B557135E7F57C935984F0C70E0E68B77E2A689DAF3EFE8" +
+			"721DF158A136ADE73530ACCA4F483A797ABC0AB182B324FB61D108A94BB2C8E3FBB96ADAB7" +
+			"60D7F4681D4F42A3DE394DF4AE56EDE76372BB190B07A7C8EE0A6D709E02FCE1CDF7E2ECC0" +
+			"3404CD28342F619172FE9CE98583FF8E4F1232EEF28183C3FE3B1B4C6FAD733BB5FCBC2EC2" +
+			"2005C58EF1837D1683B2C6F34A26C1B2EFFA886B4238611FCFDCDE355B3B6519035BBC34F4" +
+			"DEF99C023861B46FC9D6E6C9077AD91D2691F7F7EE598CB0FAC186D91CAEFE130985139270" +
+			"B4130C93BC437944F4FD4452E2D74DD364F2E21E71F54BFF5CAE82AB9C9DF69EE86D2BC522" +
+			"363A0DABC521979B0DEADA1DBF9A42D5C4484E0ABCD06BFA53DDEF3C1B20EE3FD59D7C25E4" +
+			"1D2B669E1EF16E6F52C3164DF4FB7930E9E4E58857B6AC7D5F42D69F6D187763CF1D550340" +
+			"0487F55BA57E31CC7A7135C886EFB4318AED6A1E012D9E6832A907600A918130C46DC778F9" +
+			"71AD0038092999A333CB8B7A1A1DB93D7140003C2A4ECEA9F98D0ACC0A8291CDCEC97DCF8E" +
+			"C9B55A7F88A46B4DB5A851F44182E1C68A007E5E0DD9020BFD64B645036C7A4E677D2C3853" +
+			"2A3A23BA4442CAF53EA63BB454329B7624C8917BDD64B1C0FD4CB38E8C334C701C3ACDAD06" +
+			"57FCCFEC719B1F5C3E4E46041F388147FB4CFDB477A52471F7A9A96910B855322EDB6340D8" +
+			"A00EF092350511E30ABEC1FFF9E3A26E7FB29F8C183023C3587E38DA0077D9B4763E4E4B94" +
+			"B2BBC194C6651E77CAF992EEAAC0232A281BF6B3A739C1226116820AE8DB5847A67CBEF9C9" +
+			"091B462D538CD72B03746AE77F5E62292C311562A846505DC82DB854338AE49F5235C95B91" +
+			"178CCF2DD5CACEF403EC9D1810C6272B045B3B71F9DC6B80D63FDD4A8E9ADB1E6962A69526" +
+			"D43161C1A41D570D7938DAD4A40E329CD0E40E65FFFFFFFFFFFFFFFF");
+
+	public static final SRPGroup RFC5054_8192 = new SRPGroup(SRPDigest.SHA_256, (byte) 7, 19,
+			"FFFFFFFFFFFFFFFFADF85458A2BB4A9AAFDC5620273D3CF1D8B9C583CE2D3695A9E1364114" +
+			"6433FBCC939DCE249B3EF97D2FE363630C75D8F681B202AEC4617AD3DF1ED5D5FD65612433" +
+			"F51F5F066ED0856365553DED1AF3B557135E7F57C935984F0C70E0E68B77E2A689DAF3EFE8" +
+			"721DF158A136ADE73530ACCA4F483A797ABC0AB182B324FB61D108A94BB2C8E3FBB96ADAB7" +
+			"60D7F4681D4F42A3DE394DF4AE56EDE76372BB190B07A7C8EE0A6D709E02FCE1CDF7E2ECC0" +
+			"3404CD28342F619172FE9CE98583FF8E4F1232EEF28183C3FE3B1B4C6FAD733BB5FCBC2EC2" +
+			"2005C58EF1837D1683B2C6F34A26C1B2EFFA886B4238611FCFDCDE355B3B6519035BBC34F4" +
+			"DEF99C023861B46FC9D6E6C9077AD91D2691F7F7EE598CB0FAC186D91CAEFE130985139270" +
+			"B4130C93BC437944F4FD4452E2D74DD364F2E21E71F54BFF5CAE82AB9C9DF69EE86D2BC522" +
+			"363A0DABC521979B0DEADA1DBF9A42D5C4484E0ABCD06BFA53DDEF3C1B20EE3FD59D7C25E4" +
+			"1D2B669E1EF16E6F52C3164DF4FB7930E9E4E58857B6AC7D5F42D69F6D187763CF1D550340" +
+			"0487F55BA57E31CC7A7135C886EFB4318AED6A1E012D9E6832A907600A918130C46DC778F9" +
+			"71AD0038092999A333CB8B7A1A1DB93D7140003C2A4ECEA9F98D0ACC0A8291CDCEC97DCF8E" +
+			"C9B55A7F88A46B4DB5A851F44182E1C68A007E5E0DD9020BFD64B645036C7A4E677D2C3853" +
+			"2A3A23BA4442CAF53EA63BB454329B7624C8917BDD64B1C0FD4CB38E8C334C701C3ACDAD06" +
+			"57FCCFEC719B1F5C3E4E46041F388147FB4CFDB477A52471F7A9A96910B855322EDB6340D8" +
+			"A00EF092350511E30ABEC1FFF9E3A26E7FB29F8C183023C3587E38DA0077D9B4763E4E4B94" +
+			"B2BBC194C6651E77CAF992EEAAC0232A281BF6B3A739C1226116820AE8DB5847A67CBEF9C9" +
+			"091B462D538CD72B03746AE77F5E62292C311562A846505DC82DB854338AE49F5235C95B91" +
+			"178CCF2DD5CACEF403EC9D1810C6272B045B3B71F9DC6B80D63FDD4A8E9ADB1E6962A69526" +
+			"D43161C1A41D570D7938DAD4A40E329CCFF46AAA36AD004CF600C8381E425A31D951AE64FD" +
+			"B23FCEC9509D43687FEB69EDD1CC5E0B8CC3BDF64B10EF86B63142A3AB8829555B2F747C93" +
+			"2665CB2C0F1CC01BD70229388839D2AF05E454504AC78B7582822846C0BA35C35F5C59160C" +
+			"C046FD8251541FC68C9C86B022BB7099876A460E7451A8A93109703FEE1C217E6C3826E52C" +
+			"51AA691E0E423CFC99E9E31650C1217B624816CDAD9A95F9D5B8019488D9C0A0A1FE3075A5" +
+			"77E23183F81D4A3F2FA4571EFC8CE0BA8A4FE8B6855DFE72B0A66EDED2FBABFBE58A30FAFA" +
+			"BE1C5D71A87E2F741EF8C1FE86FEA6BBFDE530677F0D97D11D49F7A8443D0822E506A9F461" +
+			"4E011E2A94838FF88CD68C8BB7C5C6424CFFFFFFFFFFFFFFFF");
+
+	//Indexed by id, with the digest in the high bits; variants are created when first needed
+	private static final SRPGroup[] groups = new SRPGroup[SRPDigest.values().length << 4];
+	static {
+
+		for(SRPGroup group : new SRPGroup[] {RFC5054_1024, RFC5054_1536, RFC5054_2048, RFC5054_3072, RFC5054_4096, RFC5054_6144, RFC5054_8192})
+			groups[group.id] = group;
+	}
+
+	/**
+	 * The group used when none is specified.
+	 */
+	public static final SRPGroup DEFAULT = RFC5054_2048;
+
+	private final byte id;
+	private final SRPDigest digest;
+	private final SRPGroup prime; //The SHA-256 group with the same prime, which owns the table of powers of g
+	final BigInteger N; //Large safe prime
+	final BigInteger g; //Generator
+	final int length; //Padded length of N in bytes
+	final BigInteger k; //Multiplier
+	private final MessageDigest proof; //H(N) xor H(g), which begins every proof
+	private volatile FixedBaseTable gTable;
+
+
+	private SRPGroup(SRPDigest digest, byte id, int g, String N) {
+
+		this(digest, id, null, new BigInteger(N, 16), BigInteger.valueOf(g));
+	}
+
+
+	private SRPGroup(SRPDigest digest, byte id, SRPGroup prime, BigInteger N, BigInteger g) {
+
+		this.id = id;
+		this.digest = digest;
+		this.prime = prime == null ? this : prime;
+		this.N = N;
+		this.g = g;
+		this.length = (N.bitLength() + 7)/8;
+		this.k = SRP.fromByteArray(digest.hash(padToN(N), padToN(g)));
+		this.proof = digest.prefix(SRP.xor(digest.hash(SRP.toByteArray(N)), digest.hash(SRP.toByteArray(g))));
+	}
+
+	/**
+	 * Returns the group with the specified id.
+	 * @param id The id of the group, as returned by {@link #getId()}.
+	 * @return The group, or null if the id is unknown.
+	 */
+	public static SRPGroup fromId(byte id) {
+
+		SRPGroup prime = id > 0 && id < groups.length ? groups[id & 15] : null;
+		return prime == null ? null : prime.withDigest(SRPDigest.values()[id >> 4]);
+	}
+
+	/**
+	 * Returns the group with the same prime and generator as this one, hashing with the specified digest.
+	 * @param digest The digest.
+	 * @return The group.
+	 */
+	public SRPGroup withDigest(SRPDigest digest) {
+
+		int variant = digest.ordinal() << 4 | (prime.id & 15);
+		synchronized(groups) {
+
+			SRPGroup group = groups[variant];
+			if(group == null) {
+
+				group = new SRPGroup(digest, (byte) variant, prime, N, g);
+				groups[variant] = group;
+			}
+
+			return group;
+		}
+	}
+
+	/**
+	 * Returns the id that identifies this group in packets and user stores.
+	 * @return The id.
+	 */
+	public byte getId() {
+
+		return id;
+	}
+
+	/**
+	 * Returns the digest this group hashes with.
+	 * @return The digest.
+	 */
+	public SRPDigest getDigest() {
+
+		return digest;
+	}
+
+	/**
+	 * Returns the size of this group's prime.
+	 * @return The size in bits.
+	 */
+	public int getBits() {
+
+		return N.bitLength();
+	}
+
+	/**
+	 * Returns true if this group's prime is at least as large as the specified group's.
+	 * @param group The group to compare to.
+	 * @return True if this group is at least as strong.
+	 */
+	public boolean isAtLeast(SRPGroup group) {
+
+		return getBits() >= group.getBits();
+	}
+
+
+	@Override
+	public String toString() {
+
+		return "RFC5054_" + getBits() + (digest == SRPDigest.SHA_256 ? "" : "_" + digest);
+	}
+
+	/**
+	 * Returns true if the specified group has the same prime and generator as this one, whatever
+	 * its digest, so that powers of g computed in one are valid in the other.
+	 * @param group The group to compare to.
+	 * @return True if the groups share their prime.
+	 */
+	boolean hasPrimeOf(SRPGroup group) {
+
+		return prime == group.prime;
+	}
+
+	/**
+	 * Raises the generator to the specified exponent, modulo N, using this group's table of powers of g.
+	 * @param exponent The exponent.
+	 * @return g^exponent mod N.
+	 */
+	BigInteger gPow(BigInteger exponent) {
+
+		if(prime != this)
+			return prime.gPow(exponent);
+
+		FixedBaseTable table = gTable;
+		if(table == null) {
+
+			synchronized(this) {
+
+				table = gTable;
+				if(table == null) {
+
+					//Smaller windows for the larger groups keep their tables to a few megabytes
+					table = new FixedBaseTable(g, N, 256, length <= 256 ? 8 : 6);
+					gTable = table;
+				}
+			}
+		}
+
+		return table.pow(exponent);
+	}
+
+	/**
+	 * Converts the specified BigInteger to a byte array padded to the length of N.
+	 * @param number The BigInteger to be converted and padded.
+	 * @return A new byte array that represents the specified BigInteger and is the same length as N.
+	 */
+	byte[] padToN(BigInteger number) {
+
+		return SRP.padTo(number, length);
+	}
+
+	/**
+	 * Hashes the specified byte arrays with this group's digest.
+	 * @param updates The data to be hashed.
+	 * @return The digested hash.
+	 */
+	byte[] hash(byte[]... updates) {
+
+		return digest.hash(updates);
+	}
+
+	/**
+	 * Hashes the specified BigInteger after padding it to the length of N.
+	 * @param number The BigInteger to be hashed.
+	 * @return The digested hash.
+	 */
+	byte[] hashPaddedToN(BigInteger number) {
+
+		return SRP.hashPadded(digest.digest(), number, length);
+	}
+
+	/**
+	 * Calculates the random scrambling parameter from the given ephemeral values.
+	 * @param A The client ephemeral.
+	 * @param B The server ephemeral.
+	 * @return The random scrambling parameter.
+	 */
+	BigInteger getU(byte[] A, byte[] B) {
+
+		MessageDigest md = digest.digest();
+		SRP.updatePadded(md, A, length);
+		SRP.updatePadded(md, B, length);
+		return SRP.fromByteArray(md.digest());
+	}
+
+	/**
+	 * Creates a digest that has absorbed the part of the proof fixed for the specified user, so that
+	 * every proof for the user can be computed from a copy of it.
+	 * @param I The identifier.
+	 * @param s The salt.
+	 * @return The digest, which must not be updated.
+	 */
+	MessageDigest getProofPrefix(String I, byte[] s) {
+
+		MessageDigest md = digest.resume(proof);
+		md.update(digest.hash(SRP.toByteArray(I)));
+		md.update(s);
+		return md;
+	}
+
+	/**
+	 * Calculates the proof of session key value from the identifier, salt, ephemeral, and
+	 * session key values.
+	 * @param I The identifier.
+	 * @param s The salt.
+	 * @param A The client ephemeral.
+	 * @param B The server ephemeral.
+	 * @param K The session key.
+	 * @return The proof of session key.
+	 */
+	byte[] getM(String I, byte[] s, byte[] A, byte[] B, byte[] K) {
+
+		byte[] hI = digest.hash(SRP.toByteArray(I));
+		MessageDigest md = digest.resume(proof);
+		md.update(hI);
+		md.update(s);
+		return finishM(md, A, B, K);
+	}
+
+	/**
+	 * Calculates the proof of session key value, continuing from a copy of a digest created by
+	 * {@link #getProofPrefix(String, byte[])}.
+	 * @param prefix The digest holding the identifier and salt.
+	 * @param A The client ephemeral.
+	 * @param B The server ephemeral.
+	 * @param K The session key.
+	 * @return The proof of session key.
+	 */
+	byte[] getM(MessageDigest prefix, byte[] A, byte[] B, byte[] K) {
+
+		return finishM(digest.resume(prefix), A, B, K);
+	}
+
+
+	private static byte[] finishM(MessageDigest md, byte[] A, byte[] B, byte[] K) {
+
+		md.update(A);
+		md.update(B);
+		md.update(K);
+		return md.digest();
+	}
+}
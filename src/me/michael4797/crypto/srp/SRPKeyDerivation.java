@@ -0,0 +1,158 @@
+package me.michael4797.crypto.srp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import me.michael4797.crypto.srp.SRPUser.PasswordData;
+
+/**
+ * A bounded pool of threads that derives private keys with PBKDF2, which is deliberately slow, away
+ * from the threads handling the network. Once the configured number of derivations are waiting,
+ * further derivations fail with {@link SRPException#SERVER_BUSY} rather than queue without bound.
+ * The cost of the derivation is chosen when a password is encoded, and {@link #calibrate(SRPDigest, long, TimeUnit)}
+ * finds the cost that fits a latency budget on the calling host.
+ */
+public class SRPKeyDerivation {
+
+	private static final long MIN_SAMPLE = TimeUnit.MILLISECONDS.toNanos(20);
+
+	private final ThreadPoolExecutor pool;
+
+	/**
+	 * Creates a new SRPKeyDerivation.
+	 * @param threads The number of threads deriving keys.
+	 * @param queueLimit The maximum number of derivations that may be waiting to run before new
+	 * derivations are rejected.
+	 */
+	public SRPKeyDerivation(int threads, int queueLimit) {
+
+		if(threads < 1)
+			throw new IllegalArgumentException("threads must be positive.");
+		if(queueLimit < 1)
+			throw new IllegalArgumentException("queueLimit must be positive.");
+
+		this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueLimit), new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+
+				Thread thread = new Thread(r, "SRP-KeyDerivation-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Finds the number of PBKDF2 iterations that take the specified time on this host, by timing
+	 * the derivation with the specified digest on the calling thread. The measurement takes a few
+	 * times the target. Clients deriving the key on slower hardware take longer.
+	 * @param digest The digest the derivation is computed with.
+	 * @param target The time a derivation should take.
+	 * @param unit The unit of the target.
+	 * @return The number of iterations, at least 1.
+	 */
+	public static int calibrate(SRPDigest digest, long target, TimeUnit unit) {
+
+		long budget = unit.toNanos(target);
+		if(budget <= 0)
+			throw new IllegalArgumentException("target must be positive.");
+
+		byte[] password = SRP.randomBytes(digest.getLength());
+		byte[] salt = SRP.randomBytes(16);
+
+		//Double the sample until it is long enough to time reliably, which also warms up the JIT
+		int iterations = 1024;
+		long elapsed = time(digest, password, salt, iterations);
+		while(elapsed < Math.min(MIN_SAMPLE, budget) && iterations < 1 << 30) {
+
+			iterations <<= 1;
+			elapsed = time(digest, password, salt, iterations);
+		}
+
+		//The fastest of a few runs is the least disturbed by other work on the host
+		for(int i = 0; i < 2; i++)
+			elapsed = Math.min(elapsed, time(digest, password, salt, iterations));
+
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) ((double) iterations*budget/Math.max(1, elapsed))));
+	}
+
+	/**
+	 * Sets the salt and iterations of the specified client on one of this pool's threads. The
+	 * client must not be used until the returned future completes.
+	 * @param user The client.
+	 * @param salt The salt used to generate the password verifier.
+	 * @param iterations The number of PBKDF2 iterations the verifier was generated with.
+	 * @return A future that completes once the client's private key has been derived, or completes
+	 * exceptionally with {@link SRPException#SERVER_BUSY} if too many derivations are waiting.
+	 */
+	public CompletableFuture<Void> setSalt(SRPUser user, byte[] salt, int iterations) {
+
+		return submit(() -> {
+
+			user.setSalt(salt, iterations);
+			return null;
+		});
+	}
+
+	/**
+	 * Encodes the password into a salt and verifier on one of this pool's threads.
+	 * @param username The username of the client to be encoded.
+	 * @param password The password to be encoded.
+	 * @param group The group the verifier is computed in.
+	 * @param iterations The number of PBKDF2 iterations, or 0 to derive the private key with a single hash.
+	 * @return A future that completes with the password data, or completes exceptionally with
+	 * {@link SRPException#SERVER_BUSY} if too many derivations are waiting.
+	 * @see SRPUser#encodePassword(String, String, SRPGroup, int)
+	 */
+	public CompletableFuture<PasswordData> encodePassword(String username, String password, SRPGroup group, int iterations) {
+
+		return submit(() -> SRPUser.encodePassword(username, password, group, iterations));
+	}
+
+	/**
+	 * Returns the number of derivations waiting to run.
+	 * @return The queue depth.
+	 */
+	public int getQueueDepth() {
+
+		return pool.getQueue().size();
+	}
+
+	/**
+	 * Stops accepting new derivations. Derivations that have already been accepted still run.
+	 */
+	public void shutdown() {
+
+		pool.shutdown();
+	}
+
+
+	private <T> CompletableFuture<T> submit(Supplier<T> derivation) {
+
+		try {
+			return CompletableFuture.supplyAsync(derivation, pool);
+		}catch(RejectedExecutionException e) {
+
+			CompletableFuture<T> rejected = new CompletableFuture<>();
+			rejected.completeExceptionally(SRPException.SERVER_BUSY);
+			return rejected;
+		}
+	}
+
+
+	private static long time(SRPDigest digest, byte[] password, byte[] salt, int iterations) {
+
+		long start = System.nanoTime();
+		digest.pbkdf2(password, salt, iterations);
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,343 @@
+package me.michael4797.crypto.srp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts and authenticates records sent over an authenticated session with keys derived from
+ * the SRP session key. Each direction has its own key and nonce, derived from K with HKDF, so the
+ * two sides never encrypt under the same nonce. A record is an 8 byte sequence number followed by
+ * the ciphertext and tag; the nonce is the direction's nonce combined with the sequence number, so
+ * no nonce is ever sent or reused. Records may arrive out of order, and a sliding window of recently
+ * received sequence numbers rejects duplicates and records too old to check.
+ * <p>
+ * Sealing and opening are each serialized, but one thread may seal while another opens. Records
+ * can be processed in batches to pay for the locking and cipher setup once per batch, and the
+ * buffers used for records can be borrowed from a pool owned by the layer.
+ */
+public class SRPRecordLayer {
+
+	/**
+	 * The number of bytes a record adds to its plaintext.
+	 */
+	public static final int OVERHEAD = 8 + 16;
+
+	private final Direction send;
+	private final Direction receive;
+	private final long[] window;
+	private long highest = -1;
+	private final int bufferSize;
+	private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Creates a new SRPRecordLayer using AES-GCM.
+	 * @param K The session key.
+	 * @param client True if this is the client side of the session.
+	 */
+	public SRPRecordLayer(byte[] K, boolean client) {
+
+		this(K, client, Suite.AES_GCM, 1024, 16384);
+	}
+
+	/**
+	 * Creates a new SRPRecordLayer.
+	 * @param K The session key.
+	 * @param client True if this is the client side of the session.
+	 * @param suite The cipher used to protect records.
+	 * @param window The number of sequence numbers below the highest received that are accepted
+	 * once, rounded up to a power of two of at least 64.
+	 * @param bufferSize The capacity of the buffers lent out by {@link #acquire()}.
+	 */
+	public SRPRecordLayer(byte[] K, boolean client, Suite suite, int window, int bufferSize) {
+
+		if(window < 1)
+			throw new IllegalArgumentException("window must be positive.");
+		if(bufferSize <= OVERHEAD)
+			throw new IllegalArgumentException("bufferSize must be larger than " + OVERHEAD + ".");
+
+		Direction toServer = new Direction(suite, K, "client");
+		Direction toClient = new Direction(suite, K, "server");
+		this.send = client ? toServer : toClient;
+		this.receive = client ? toClient : toServer;
+		int words = (window + 63) >>> 6;
+		this.window = new long[Integer.bitCount(words) == 1 ? words : Integer.highestOneBit(words) << 1];
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Encrypts the remaining bytes of the plaintext into a record, written to the output buffer
+	 * at its position. The buffers may share memory, so a plaintext can be sealed in place by
+	 * leaving 8 bytes in front of it for the record's sequence number.
+	 * @param plaintext The data to be sent.
+	 * @param record The buffer the record is written to.
+	 */
+	public void seal(ByteBuffer plaintext, ByteBuffer record) {
+
+		synchronized(send) {
+
+			send.seal(plaintext, record);
+		}
+	}
+
+	/**
+	 * Encrypts a batch of plaintexts into records.
+	 * @param plaintexts The data to be sent.
+	 * @param records The buffers the records are written to, one for each plaintext.
+	 * @param count The number of plaintexts in the batch.
+	 * @see #seal(ByteBuffer, ByteBuffer)
+	 */
+	public void sealAll(ByteBuffer[] plaintexts, ByteBuffer[] records, int count) {
+
+		synchronized(send) {
+
+			for(int i = 0; i < count; i++)
+				send.seal(plaintexts[i], records[i]);
+		}
+	}
+
+	/**
+	 * Decrypts the remaining bytes of the record, writing the plaintext to the output buffer at
+	 * its position. The buffers may share memory.
+	 * @param record The received record.
+	 * @param plaintext The buffer the plaintext is written to.
+	 * @throws SRPException If the record was modified, was not sent by the other side of this
+	 * session, or has already been received.
+	 */
+	public void open(ByteBuffer record, ByteBuffer plaintext) throws SRPException {
+
+		synchronized(receive) {
+
+			open(receive, record, plaintext);
+		}
+	}
+
+	/**
+	 * Decrypts a batch of records. The output buffer of a record that is rejected is left empty.
+	 * @param records The received records.
+	 * @param plaintexts The buffers the plaintexts are written to, one for each record.
+	 * @param count The number of records in the batch.
+	 * @return The number of records accepted.
+	 * @see #open(ByteBuffer, ByteBuffer)
+	 */
+	public int openAll(ByteBuffer[] records, ByteBuffer[] plaintexts, int count) {
+
+		int opened = 0;
+		synchronized(receive) {
+
+			for(int i = 0; i < count; i++) {
+
+				int start = plaintexts[i].position();
+				try {
+
+					open(receive, records[i], plaintexts[i]);
+					opened++;
+				}catch(SRPException e) {
+
+					plaintexts[i].position(start).limit(start);
+				}
+			}
+		}
+
+		return opened;
+	}
+
+	/**
+	 * Borrows a cleared buffer from this layer's pool, allocating one if none are free.
+	 * @return A direct buffer.
+	 */
+	public ByteBuffer acquire() {
+
+		ByteBuffer buffer = buffers.poll();
+		if(buffer == null)
+			return ByteBuffer.allocateDirect(bufferSize);
+
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer borrowed with {@link #acquire()} to the pool.
+	 * @param buffer The buffer, which must not be used afterwards.
+	 */
+	public void release(ByteBuffer buffer) {
+
+		if(buffer.capacity() == bufferSize && buffer.isDirect())
+			buffers.offer(buffer);
+	}
+
+
+	private void open(Direction direction, ByteBuffer record, ByteBuffer plaintext) throws SRPException {
+
+		if(record.remaining() < OVERHEAD)
+			throw SRPException.INCORRECT_PROTOCOL;
+
+		long sequence = record.getLong(record.position());
+		if(sequence < 0 || !fresh(sequence))
+			throw SRPException.AUTHENTICATION_FAILED;
+
+		//Only mark the sequence number as seen once the record has been authenticated
+		direction.open(sequence, record, plaintext);
+		mark(sequence);
+	}
+
+
+	private boolean fresh(long sequence) {
+
+		if(sequence > highest)
+			return true;
+
+		long age = highest - sequence;
+		if(age >= window.length*64L)
+			return false;
+
+		int bit = (int) (sequence & (window.length*64 - 1));
+		return (window[bit >>> 6] & (1L << bit)) == 0;
+	}
+
+
+	private void mark(long sequence) {
+
+		int size = window.length*64;
+		if(sequence > highest) {
+
+			//Clear the bits of the sequence numbers the window slides past
+			long shift = highest < 0 ? size : sequence - highest;
+			if(shift >= size)
+				Arrays.fill(window, 0);
+			else
+				for(long s = highest + 1; s < sequence; s++)
+					window[(int) (s & (size - 1)) >>> 6] &= ~(1L << (s & (size - 1)));
+
+			highest = sequence;
+		}
+
+		int bit = (int) (sequence & (size - 1));
+		window[bit >>> 6] |= 1L << bit;
+	}
+
+	/**
+	 * The ciphers used to protect records.
+	 */
+	public enum Suite {
+
+		AES_GCM("AES/GCM/NoPadding", "AES", 16),
+
+		/**
+		 * ChaCha20-Poly1305, which is only available on Java 11 and later.
+		 */
+		CHACHA20_POLY1305("ChaCha20-Poly1305", "ChaCha20", 32);
+
+		private final String transformation;
+		private final String algorithm;
+		private final int keySize;
+
+		Suite(String transformation, String algorithm, int keySize) {
+
+			this.transformation = transformation;
+			this.algorithm = algorithm;
+			this.keySize = keySize;
+		}
+	}
+
+	/**
+	 * The key, nonce, and sequence number of one direction of the session.
+	 */
+	private static final class Direction {
+
+		private final Suite suite;
+		private final Cipher cipher;
+		private final SecretKeySpec key;
+		private final byte[] iv;
+		private final byte[] nonce = new byte[12];
+		private long sequence;
+
+		Direction(Suite suite, byte[] K, String label) {
+
+			this.suite = suite;
+			try {
+
+				this.cipher = Cipher.getInstance(suite.transformation);
+				this.key = new SecretKeySpec(expand(K, "SRP " + label + " key", suite.keySize), suite.algorithm);
+				this.iv = expand(K, "SRP " + label + " iv", 12);
+			}catch(GeneralSecurityException e) {
+
+				throw new IllegalStateException(suite + " is not supported by this JVM.", e);
+			}
+		}
+
+		void seal(ByteBuffer plaintext, ByteBuffer record) {
+
+			if(sequence == Long.MAX_VALUE)
+				throw new IllegalStateException("The session has sent too many records and must be authenticated again.");
+
+			long sequence = this.sequence++;
+			record.putLong(sequence);
+			try {
+
+				cipher.init(Cipher.ENCRYPT_MODE, key, parameters(sequence));
+				cipher.doFinal(plaintext, record);
+			}catch(GeneralSecurityException e) {
+
+				throw new IllegalStateException(e);
+			}
+		}
+
+		void open(long sequence, ByteBuffer record, ByteBuffer plaintext) throws SRPException {
+
+			int start = record.position();
+			record.position(start + 8);
+			try {
+
+				cipher.init(Cipher.DECRYPT_MODE, key, parameters(sequence));
+				cipher.doFinal(record, plaintext);
+			}catch(GeneralSecurityException e) {
+
+				record.position(start);
+				throw SRPException.AUTHENTICATION_FAILED;
+			}
+		}
+
+		private AlgorithmParameterSpec parameters(long sequence) {
+
+			System.arraycopy(iv, 0, nonce, 0, 12);
+			for(int i = 0; i < 8; i++)
+				nonce[11 - i] ^= (byte) (sequence >>> (i*8));
+
+			return suite == Suite.AES_GCM ? new GCMParameterSpec(128, nonce) : new IvParameterSpec(nonce);
+		}
+
+		/**
+		 * HKDF-Expand, treating the session key as the pseudorandom key since it is already a hash.
+		 */
+		private static byte[] expand(byte[] K, String info, int length) throws GeneralSecurityException {
+
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(K, "HmacSHA256"));
+			byte[] output = new byte[length];
+			byte[] block = new byte[0];
+			for(int offset = 0, counter = 1; offset < length; counter++) {
+
+				mac.update(block);
+				mac.update(info.getBytes(StandardCharsets.UTF_8));
+				mac.update((byte) counter);
+				block = mac.doFinal();
+
+				int size = Math.min(block.length, length - offset);
+				System.arraycopy(block, 0, output, offset, size);
+				offset += size;
+			}
+
+			return output;
+		}
+	}
+}
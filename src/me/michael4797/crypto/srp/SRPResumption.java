@@ -0,0 +1,124 @@
+package me.michael4797.crypto.srp;
+
+import java.security.MessageDigest;
+
+/**
+ * Re-authenticates a client that holds the session key from an earlier SRP authentication, using
+ * only hashes. The client sends a nonce along with its resumption ticket, the server replies with
+ * its own nonce and a proof of the old session key, and the client replies with its proof. Both
+ * proofs cover both nonces, so neither can be replayed into another resumption, and the new session
+ * key is derived from the old key and both nonces.
+ */
+public final class SRPResumption extends SRP{
+
+	private static final byte[] SERVER = {'S'};
+	private static final byte[] CLIENT = {'C'};
+	private static final byte[] KEY = {'K'};
+	
+	private final byte[] key;
+	private final byte[] clientNonce;
+	private byte[] serverNonce;
+	
+	/**
+	 * Creates a new client side resumption of the session with the specified key.
+	 * @param K The session key of the session being resumed.
+	 */
+	public SRPResumption(byte[] K){
+		
+		this.key = K;
+		this.clientNonce = randomBytes(32);
+	}
+	
+	/**
+	 * Creates a new server side resumption of the session with the specified key.
+	 * @param K The session key recovered from the client's ticket.
+	 * @param clientNonce The client's nonce.
+	 * @throws SRPException If the client's nonce is not the expected length.
+	 */
+	public SRPResumption(byte[] K, byte[] clientNonce) throws SRPException{
+		
+		if(clientNonce.length != 32)
+			throw SRPException.INCORRECT_PROTOCOL;
+		
+		this.key = K;
+		this.clientNonce = clientNonce;
+		this.serverNonce = randomBytes(32);
+	}
+	
+	/**
+	 * Gets the client's nonce.
+	 * @return The client nonce.
+	 */
+	public byte[] getClientNonce(){
+		
+		return clientNonce;
+	}
+	
+	/**
+	 * Gets the server's nonce.
+	 * @return The server nonce, or null if the client has not received it yet.
+	 */
+	public byte[] getServerNonce(){
+		
+		return serverNonce;
+	}
+	
+	/**
+	 * Gets the server's proof of the old session key.
+	 * @return The server proof.
+	 */
+	public byte[] getServerProof(){
+		
+		return proof(SERVER);
+	}
+	
+	/**
+	 * Verifies the server's proof and calculates the client's proof.
+	 * @param serverNonce The server's nonce.
+	 * @param proof The server's proof.
+	 * @return The client proof.
+	 * @throws SRPException If the server does not know the old session key.
+	 */
+	public byte[] verifyServer(byte[] serverNonce, byte[] proof) throws SRPException{
+		
+		if(this.serverNonce != null || serverNonce.length != 32)
+			throw SRPException.INCORRECT_PROTOCOL;
+		
+		this.serverNonce = serverNonce;
+		if(!MessageDigest.isEqual(proof(SERVER), proof))
+			throw SRPException.AUTHENTICATION_FAILED;
+		
+		return proof(CLIENT);
+	}
+	
+	/**
+	 * Verifies the client's proof. The resumption is finished upon successfully returning from a
+	 * call to this method.
+	 * @param proof The client's proof.
+	 * @throws SRPException If the client does not know the old session key.
+	 */
+	public void verifyClient(byte[] proof) throws SRPException{
+		
+		if(!MessageDigest.isEqual(proof(CLIENT), proof))
+			throw SRPException.AUTHENTICATION_FAILED;
+	}
+	
+	/**
+	 * Derives the key of the resumed session.
+	 * @return The new session key.
+	 * @throws SRPException If the client has not received the server's nonce.
+	 */
+	public byte[] getSessionKey() throws SRPException{
+		
+		if(serverNonce == null)
+			throw SRPException.INCORRECT_PROTOCOL;
+		
+		return proof(KEY);
+	}
+	
+	
+	private byte[] proof(byte[] label){
+		
+		return hash(key, clientNonce, serverNonce, label);
+	}
+}
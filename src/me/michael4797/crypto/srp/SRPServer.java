@@ -1,6 +1,9 @@
 package me.michael4797.crypto.srp;
 
 import java.math.BigInteger;
+import java.util.Arrays;
+
+import me.michael4797.crypto.srp.SRPUser.PasswordData;
 
 /**
  * The server side of the SRP implementation.
@@ -11,9 +14,13 @@ public final class SRPServer extends SRP{
 	private byte[] A;
 	private byte[] B;
 	private BigInteger b;
+	private byte[] key;
 	
+	private final PasswordData data;
 	private final byte[] salt;
 	private final BigInteger verifier;
+	private final SRPGroup group;
+	private final EphemeralPool ephemerals;
 	
 	/**
 	 * Creates a new SRP instance to authenticate a client with the specified username, salt, and verifier.
@@ -22,28 +29,66 @@ public final class SRPServer extends SRP{
 	 * @param verifier The verifier of the client.
 	 */
 	public SRPServer(String username, byte[] salt, byte[] verifier){
+		
+		this(username, salt, verifier, null);
+	}
+	
+	/**
+	 * Creates a new SRP instance to authenticate a client with the specified username, salt, and verifier,
+	 * taking the server ephemeral from the specified pool.
+	 * @param username The username of the client to be authenticated.
+	 * @param salt The salt of the client.
+	 * @param verifier The verifier of the client.
+	 * @param ephemerals The pool of precomputed server ephemerals, or null to compute the ephemeral inline.
+	 */
+	public SRPServer(String username, byte[] salt, byte[] verifier, EphemeralPool ephemerals){
+	
+		this(username, new PasswordData(salt, verifier), ephemerals);
+	}
+	
+	/**
+	 * Creates a new SRP instance to authenticate a client with the specified password data, in the
+	 * group the verifier was computed in, taking the server ephemeral from the specified pool if the
+	 * pool uses the same prime.
+	 * @param username The username of the client to be authenticated.
+	 * @param data The salt, verifier, and group of the client.
+	 * @param ephemerals The pool of precomputed server ephemerals, or null to compute the ephemeral inline.
+	 */
+	public SRPServer(String username, PasswordData data, EphemeralPool ephemerals){
 	
 		this.username = username;
+		this.ephemerals = ephemerals;
+		this.data = data;
+		this.salt = data.salt;
+		this.verifier = fromByteArray(data.verifier);
+		this.group = data.group;
+	}
+	
+	/**
+	 * Retrieves the username of the client being authenticated.
+	 * @return The username.
+	 */
+	public String getUsername(){
 		
-		if(salt.length == 32 && salt[0] < 0){
-			
-			this.salt = new byte[33];
-			for(int i = 0; i < 32; i++)
-				this.salt[i+1] = salt[i];
-		}
-		else
-			this.salt = salt;
-		
-		if(verifier.length == 256 && verifier[0] < 0){
-			
-			byte[] vtmp = new byte[257];
-			for(int i = 0; i < 256; i++)
-				vtmp[i+1] = verifier[i];
-			
-			this.verifier = fromByteArray(vtmp);
-		}
-		else
-			this.verifier = fromByteArray(verifier);
+		return username;
+	}
+	
+	/**
+	 * Retrieves the number of PBKDF2 iterations the client derives its private key with.
+	 * @return The number of iterations, or 0 if the private key is derived with a single hash.
+	 */
+	public int getIterations(){
+		
+		return data.iterations;
+	}
+	
+	/**
+	 * Retrieves the group the client is authenticated in.
+	 * @return The group.
+	 */
+	public SRPGroup getGroup(){
+		
+		return group;
 	}
 	
 	/**
@@ -63,7 +108,7 @@ public final class SRPServer extends SRP{
 	public void setA(byte[] A) throws SRPException{
 		
 		if(this.A != null)
-			throw new SRPException.IncorrectProtocolException();
+			throw SRPException.INCORRECT_PROTOCOL;
 		
 		this.A = A;
 	}
@@ -72,17 +117,40 @@ public final class SRPServer extends SRP{
 	 * Gets the value of the server's ephemeral.
 	 * @return The server ephemeral.
 	 */
-	public byte[] getB() {
+	public synchronized byte[] getB() {
 		
 		if(B != null)
 			return B;
 		
-		b = fromByteArray(SRP.randomBytes(32));		
-		B = padToN(k.multiply(verifier).add(g.modPow(b, N)).mod(N));
+		EphemeralPool.Ephemeral ephemeral = ephemerals == null || !ephemerals.getGroup().hasPrimeOf(group) ? EphemeralPool.Ephemeral.generate(group) : ephemerals.take();
+		b = ephemeral.b;
+		B = group.padToN(group.k.multiply(verifier).add(ephemeral.gb).mod(group.N));
 		
 		return B;
 	}
 	
+	/**
+	 * Derives the session key from the client and server ephemerals. The key does not depend on
+	 * the client's proof, so this may be called as soon as the server ephemeral has been sent,
+	 * overlapping the server's exponentiation with the client's. If this has not been called,
+	 * the key is derived by {@link #getHAMK(byte[])}.
+	 * @throws SRPException If the client ephemeral has not been set.
+	 */
+	public synchronized void deriveKey() throws SRPException{
+		
+		if(key != null)
+			return;
+		
+		if(A == null)
+			throw SRPException.INCORRECT_PROTOCOL;
+		
+		BigInteger u = group.getU(A, getB());
+		if(b == null)
+			throw SRPException.AUTHENTICATION_FAILED;
+		
+		key = group.hashPaddedToN(fromByteArray(A).multiply(verifier.modPow(u, group.N)).modPow(b, group.N));
+	}
+	
 	/**
 	 * Gets the server's proof by hashing the client ephemeral, client proof, and session key.
 	 * @param M The client's proof.
@@ -91,18 +159,38 @@ public final class SRPServer extends SRP{
 	 */
 	public byte[] getHAMK(byte[] M) throws SRPException{
 		
-		BigInteger u = getU(this.A, B);
-		byte[] key = hash(padToN(fromByteArray(A).multiply(verifier.modPow(u, N)).modPow(b, N)));
-
-		byte[] sM = getM(username, salt, A, B, key);
+		deriveKey();
+		byte[] sM = group.getM(data.getProofPrefix(username), A, B, key);
 		
 		if(sM.length != M.length)
-			throw new SRPException.AuthenticationFailedException();
+			throw SRPException.AUTHENTICATION_FAILED;
 		
 		for(int i = 0; i < sM.length; i++)
 			if(sM[i] != M[i])
-				throw new SRPException.AuthenticationFailedException();
+				throw SRPException.AUTHENTICATION_FAILED;
+		
+		return group.hash(this.A, M, key);
+	}
+	
+	/**
+	 * Retrieves the session key shared with the client.
+	 * @return The session key, or null if it has not been derived yet.
+	 */
+	public synchronized byte[] getSessionKey(){
+		
+		return key;
+	}
+	
+	/**
+	 * Discards the server's secret ephemeral and overwrites the session key, for an authentication
+	 * that has been abandoned. The server cannot complete the authentication afterwards.
+	 */
+	public synchronized void destroy(){
+		
+		b = null;
+		if(key != null)
+			Arrays.fill(key, (byte) 0);
 		
-		return hash(this.A, M, key);
+		key = null;
 	}
 }
@@ -0,0 +1,244 @@
+package me.michael4797.crypto.srp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Issues and redeems the tickets that let a client resume an authenticated session without
+ * repeating the SRP exchange. A ticket holds the username and session key encrypted and
+ * authenticated with AES-GCM under a key known only to this issuer, so the server keeps no state
+ * for a session until it is resumed. Ticket keys are replaced after a fixed period, and old keys
+ * are kept only until every ticket issued under them has expired. Each ticket can be redeemed once;
+ * redeemed tickets are remembered until they expire, so a captured ticket cannot be replayed
+ * against this issuer.
+ */
+public class SRPTicketIssuer {
+
+	private static final byte VERSION = 1;
+	private static final int IV_SIZE = 12;
+	private static final int TAG_SIZE = 16;
+	private static final int HEADER_SIZE = 1 + 4 + IV_SIZE;
+	private static final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(SRPTicketIssuer::newCipher);
+	
+	private final long lifetime;
+	private final long rotation;
+	private volatile TicketKey[] keys;
+	private final Map<ByteBuffer, Long> redeemed = new ConcurrentHashMap<>();
+	private final AtomicInteger redemptions = new AtomicInteger();
+	
+	/**
+	 * Creates a new SRPTicketIssuer.
+	 * @param lifetime The time after which a ticket can no longer be redeemed.
+	 * @param rotation The time after which a new ticket key is used.
+	 * @param unit The unit of both times.
+	 */
+	public SRPTicketIssuer(long lifetime, long rotation, TimeUnit unit) {
+		
+		if(lifetime <= 0)
+			throw new IllegalArgumentException("lifetime must be positive.");
+		if(rotation <= 0)
+			throw new IllegalArgumentException("rotation must be positive.");
+		
+		this.lifetime = unit.toMillis(lifetime);
+		this.rotation = unit.toMillis(rotation);
+		this.keys = new TicketKey[] {new TicketKey(0, System.currentTimeMillis())};
+	}
+	
+	/**
+	 * Issues a ticket for the specified session.
+	 * @param username The authenticated user.
+	 * @param K The session key.
+	 * @return The encrypted ticket.
+	 */
+	public byte[] issue(String username, byte[] K) {
+		
+		long now = System.currentTimeMillis();
+		TicketKey key = keys[0];
+		if(now - key.created >= rotation)
+			key = rotate(now, false);
+		
+		byte[] name = username.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer plaintext = ByteBuffer.allocate(8 + 1 + K.length + name.length);
+		plaintext.putLong(now + lifetime);
+		plaintext.put((byte) K.length);
+		plaintext.put(K);
+		plaintext.put(name);
+		
+		ByteBuffer ticket = ByteBuffer.allocate(HEADER_SIZE + plaintext.capacity() + TAG_SIZE);
+		ticket.put(VERSION);
+		ticket.putInt(key.id);
+		ticket.put(SRP.randomBytes(IV_SIZE));
+		try {
+			
+			Cipher cipher = ciphers.get();
+			cipher.init(Cipher.ENCRYPT_MODE, key.key, new GCMParameterSpec(TAG_SIZE*8, ticket.array(), 5, IV_SIZE));
+			cipher.updateAAD(ticket.array(), 0, HEADER_SIZE);
+			cipher.doFinal(plaintext.array(), 0, plaintext.capacity(), ticket.array(), HEADER_SIZE);
+		}catch(GeneralSecurityException e) {
+			
+			throw new IllegalStateException(e);
+		}
+		
+		return ticket.array();
+	}
+	
+	/**
+	 * Decrypts the specified ticket and marks it as used.
+	 * @param ticket The ticket presented by the client.
+	 * @return The session the ticket was issued for.
+	 * @throws SRPException If the ticket is malformed, was not issued by this issuer, has expired,
+	 * or has already been redeemed.
+	 */
+	public Ticket redeem(byte[] ticket) throws SRPException {
+		
+		if(ticket.length < HEADER_SIZE + 9 + TAG_SIZE || ticket[0] != VERSION)
+			throw SRPException.AUTHENTICATION_FAILED;
+		
+		int id = ByteBuffer.wrap(ticket, 1, 4).getInt();
+		TicketKey key = null;
+		for(TicketKey candidate : keys)
+			if(candidate.id == id)
+				key = candidate;
+		
+		if(key == null)
+			throw SRPException.AUTHENTICATION_FAILED;
+		
+		ByteBuffer plaintext;
+		try {
+			
+			Cipher cipher = ciphers.get();
+			cipher.init(Cipher.DECRYPT_MODE, key.key, new GCMParameterSpec(TAG_SIZE*8, ticket, 5, IV_SIZE));
+			cipher.updateAAD(ticket, 0, HEADER_SIZE);
+			plaintext = ByteBuffer.wrap(cipher.doFinal(ticket, HEADER_SIZE, ticket.length - HEADER_SIZE));
+		}catch(GeneralSecurityException e) {
+			
+			throw SRPException.AUTHENTICATION_FAILED;
+		}
+		
+		long now = System.currentTimeMillis();
+		long expires = plaintext.getLong();
+		byte[] K = new byte[plaintext.get() & 255];
+		if(now >= expires || plaintext.remaining() < K.length)
+			throw SRPException.AUTHENTICATION_FAILED;
+		
+		//The IV is random and unique to the ticket, so it identifies the ticket
+		if((redemptions.incrementAndGet() & 1023) == 0)
+			purge(now);
+		if(redeemed.putIfAbsent(ByteBuffer.wrap(ticket, 5, IV_SIZE).slice(), expires) != null)
+			throw SRPException.AUTHENTICATION_FAILED;
+		
+		plaintext.get(K);
+		byte[] name = new byte[plaintext.remaining()];
+		plaintext.get(name);
+		return new Ticket(new String(name, StandardCharsets.UTF_8), K);
+	}
+	
+	/**
+	 * Starts issuing tickets under a new key immediately.
+	 */
+	public void rotate() {
+		
+		rotate(System.currentTimeMillis(), true);
+	}
+	
+	
+	private synchronized TicketKey rotate(long now, boolean force) {
+		
+		//Another thread may have rotated the key while this one was waiting
+		TicketKey[] keys = this.keys;
+		if(!force && now - keys[0].created < rotation)
+			return keys[0];
+		
+		//A key stops being used when the next one is created, and is kept until its last ticket expires
+		int kept = 1;
+		while(kept < keys.length && now - keys[kept - 1].created < lifetime)
+			kept++;
+		
+		TicketKey[] rotated = new TicketKey[kept + 1];
+		rotated[0] = new TicketKey(keys[0].id + 1, now);
+		System.arraycopy(keys, 0, rotated, 1, kept);
+		this.keys = rotated;
+		return rotated[0];
+	}
+	
+	
+	private void purge(long now) {
+		
+		Iterator<Long> expiries = redeemed.values().iterator();
+		while(expiries.hasNext())
+			if(now >= expiries.next())
+				expiries.remove();
+	}
+	
+	
+	private static Cipher newCipher() {
+		
+		try {
+			
+			return Cipher.getInstance("AES/GCM/NoPadding");
+		}catch(GeneralSecurityException e) {
+			
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * The session recovered from a redeemed ticket.
+	 */
+	public static final class Ticket {
+		
+		private final String username;
+		private final byte[] key;
+		
+		Ticket(String username, byte[] key) {
+			
+			this.username = username;
+			this.key = key;
+		}
+		
+		/**
+		 * Retrieves the user the ticket was issued to.
+		 * @return The username.
+		 */
+		public String getUsername() {
+			
+			return username;
+		}
+		
+		/**
+		 * Retrieves the session key of the session the ticket was issued for.
+		 * @return The session key.
+		 */
+		public byte[] getKey() {
+			
+			return key;
+		}
+	}
+	
+	/**
+	 * A key that tickets are encrypted under.
+	 */
+	private static final class TicketKey {
+		
+		final int id;
+		final long created;
+		final SecretKeySpec key;
+		
+		TicketKey(int id, long created) {
+			
+			this.id = id;
+			this.created = created;
+			this.key = new SecretKeySpec(SRP.randomBytes(16), "AES");
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package me.michael4797.crypto.srp;
 
 import java.math.BigInteger;
+import java.security.MessageDigest;
 
 /**
  * The client side of the SRP implementation.
@@ -8,12 +9,15 @@ import java.math.BigInteger;
 public final class SRPUser extends SRP{
 
 	private String username, password;
+	private SRPGroup group;
 	private BigInteger a;
 	private byte[] s;
 	private byte[] A;
 	private byte[] B;
 	private byte[] K;
+	private byte[] M;
 	private BigInteger x;
+	private BigInteger kv;
 	
 	/**
 	 * Creates a new SRP instance to authenticate a client with the specified username, and password.
@@ -22,24 +26,66 @@ public final class SRPUser extends SRP{
 	 */
 	public SRPUser(String username, String password){
 		
+		this(username, password, SRPGroup.DEFAULT);
+	}
+	
+	/**
+	 * Creates a new SRP instance to authenticate a client with the specified username, and password,
+	 * generating the client ephemeral in the specified group.
+	 * @param username The username of the client.
+	 * @param password The password of the client.
+	 * @param group The group the client expects the server to use.
+	 */
+	public SRPUser(String username, String password, SRPGroup group){
+		
 		this.username = username;
 		this.password = password;
-		a = fromByteArray(randomBytes(32));
-		A = padToN(g.modPow(a, N));
+		setGroup(group);
 	}
 	
 	/**
-	 * Encodes the password into a salt and verifier.
+	 * Encodes the password into a salt and verifier in the default group.
 	 * @param username The username of the client to be encoded.
 	 * @param password The password to be encoded.
 	 * @return The password salt and verifier.
 	 */
 	public static PasswordData encodePassword(String username, String password){
 		
+		return encodePassword(username, password, SRPGroup.DEFAULT);
+	}
+	
+	/**
+	 * Encodes the password into a salt and verifier in the specified group.
+	 * @param username The username of the client to be encoded.
+	 * @param password The password to be encoded.
+	 * @param group The group the verifier is computed in.
+	 * @return The password salt, verifier, and group.
+	 */
+	public static PasswordData encodePassword(String username, String password, SRPGroup group){
+		
+		return encodePassword(username, password, group, 0);
+	}
+	
+	/**
+	 * Encodes the password into a salt and verifier in the specified group, deriving the private key
+	 * with PBKDF2 so that guessing the password from a stolen verifier costs the specified number of
+	 * iterations per guess. Every authentication of the user costs the client the same.
+	 * @param username The username of the client to be encoded.
+	 * @param password The password to be encoded.
+	 * @param group The group the verifier is computed in.
+	 * @param iterations The number of PBKDF2 iterations, or 0 to derive the private key with a single hash.
+	 * @return The password salt, verifier, group, and iterations.
+	 * @see SRPKeyDerivation#calibrate(SRPDigest, long, java.util.concurrent.TimeUnit)
+	 */
+	public static PasswordData encodePassword(String username, String password, SRPGroup group, int iterations){
+		
+		if(iterations < 0)
+			throw new IllegalArgumentException("iterations must not be negative.");
+		
 		byte[] salt = randomBytes(16);
-		BigInteger x = getX(salt, username, password);
-		byte[] verifier = padToN(g.modPow(x, N));
-		return new PasswordData(salt, verifier);
+		BigInteger x = getX(group, salt, username, password, iterations);
+		byte[] verifier = group.padToN(group.gPow(x));
+		return new PasswordData(salt, verifier, group, iterations);
 	}
 	
 	/**
@@ -51,6 +97,30 @@ public final class SRPUser extends SRP{
 		return username;
 	}
 	
+	/**
+	 * Retrieves the group this client is authenticating in.
+	 * @return The group.
+	 */
+	public SRPGroup getGroup(){
+		
+		return group;
+	}
+	
+	/**
+	 * Changes the group this client authenticates in, generating a new client ephemeral. This
+	 * must be called before the salt is set, and the new client ephemeral sent instead of the old.
+	 * @param group The group the server uses for this client.
+	 */
+	public void setGroup(SRPGroup group){
+		
+		if(group == this.group)
+			return;
+		
+		this.group = group;
+		a = fromByteArray(randomBytes(32));
+		A = group.padToN(group.gPow(a));
+	}
+	
 	/**
 	 * Gets the client ephemeral.
 	 * @return The client ephemeral.
@@ -68,21 +138,38 @@ public final class SRPUser extends SRP{
 	public void setB(byte[] B) throws SRPException{
 		
 		if(x == null)
-			throw new SRPException.IncorrectProtocolException();
+			throw SRPException.INCORRECT_PROTOCOL;
 		
 		this.B = B;
+		M = null;
 		BigInteger biB = fromByteArray(B);
-		K = hash(padToN(biB.subtract(k.multiply(g.modPow(x, N))).modPow(a.add(getU(A, B).multiply(x)), N)));
+		K = group.hashPaddedToN(biB.subtract(kv).modPow(a.add(group.getU(A, B).multiply(x)), group.N));
 	}
 	
 	/**
-	 * Sets the salt for the client's password.
+	 * Sets the salt for the client's password and derives the parts of the session key that do not
+	 * depend on the server ephemeral. The client ephemeral does not depend on the salt, so it may be
+	 * sent before this is called to overlap this work with the server's.
 	 * @param s The salt used to generate the password verifier.
 	 */
 	public void setSalt(byte[] s){
 		
+		setSalt(s, 0);
+	}
+	
+	/**
+	 * Sets the salt for the client's password and the cost of deriving the private key from it, and
+	 * derives the parts of the session key that do not depend on the server ephemeral.
+	 * @param s The salt used to generate the password verifier.
+	 * @param iterations The number of PBKDF2 iterations the verifier was generated with, or 0 if
+	 * the private key is derived with a single hash.
+	 * @see #setSalt(byte[])
+	 */
+	public void setSalt(byte[] s, int iterations){
+		
 		this.s = s;
-		x = getX(s, username, password);
+		x = getX(group, s, username, password, iterations);
+		kv = group.k.multiply(group.gPow(x)).mod(group.N);
 	}
 	
 	/**
@@ -93,8 +180,22 @@ public final class SRPUser extends SRP{
 	public byte[] getM() throws SRPException{
 		
 		if(B == null)
-			throw new SRPException.IncorrectProtocolException();
-		return getM(username, s, A, B, K);
+			throw SRPException.INCORRECT_PROTOCOL;
+		
+		//Kept for verifying the server's proof, which hashes it again
+		if(M == null)
+			M = group.getM(username, s, A, B, K);
+		
+		return M;
+	}
+	
+	/**
+	 * Retrieves the session key shared with the server.
+	 * @return The session key, or null if the server ephemeral has not been set.
+	 */
+	public byte[] getSessionKey(){
+		
+		return K;
 	}
 	
 	/**
@@ -104,37 +205,89 @@ public final class SRPUser extends SRP{
 	 */
 	public void verify(byte[] HAMK) throws SRPException{
 		
-		byte[] cHAMK = hash(A, getM(username, s, A, B, K), K);
+		byte[] cHAMK = group.hash(A, getM(), K);
 		
 		if(cHAMK.length != HAMK.length)
-			throw new SRPException.AuthenticationFailedException();
+			throw SRPException.AUTHENTICATION_FAILED;
 		
 		for(int i = 0; i < cHAMK.length; i++)
 			if(cHAMK[i] != HAMK[i])
-				throw new SRPException.AuthenticationFailedException();
+				throw SRPException.AUTHENTICATION_FAILED;
 	}
 	
 	
-	private static BigInteger getX(byte[] salt, String username, String password){
+	private static BigInteger getX(SRPGroup group, byte[] salt, String username, String password, int iterations){
 		
 		byte[] I = toByteArray(username + ":" + password);
-		byte[] hash = hash(I);
+		byte[] hash = group.hash(I);
+		if(iterations > 0)
+			return fromByteArray(group.getDigest().pbkdf2(hash, salt, iterations));
 
-	    return fromByteArray(hash(salt, hash));
+	    return fromByteArray(group.hash(salt, hash));
 	}
 	
 	/**
-	 * Convenience class for storing the salt and verifier of a password.
+	 * Convenience class for storing the salt and verifier of a password, the group the verifier
+	 * was computed in, and the number of PBKDF2 iterations the private key was derived with.
 	 */
 	public static class PasswordData{
 		
 		public final byte[] salt;
 		public final byte[] verifier;
+		public final SRPGroup group;
+		public final int iterations;
+		private volatile ProofPrefix proof;
 		
 		public PasswordData(byte[] salt, byte[] verifier) {
 			
+			this(salt, verifier, SRPGroup.DEFAULT);
+		}
+		
+		public PasswordData(byte[] salt, byte[] verifier, SRPGroup group) {
+			
+			this(salt, verifier, group, 0);
+		}
+		
+		public PasswordData(byte[] salt, byte[] verifier, SRPGroup group, int iterations) {
+			
 			this.salt = salt;
 			this.verifier = verifier;
+			this.group = group;
+			this.iterations = iterations;
+		}
+		
+		/**
+		 * Retrieves the digest that has absorbed the part of the proof fixed for the specified user,
+		 * computing it the first time it is needed. Stores that keep password data in memory let every
+		 * authentication of the user reuse it.
+		 * @param username The user this password data belongs to.
+		 * @return The digest, which must not be updated.
+		 */
+		MessageDigest getProofPrefix(String username) {
+			
+			ProofPrefix proof = this.proof;
+			if(proof == null || !proof.username.equals(username)) {
+				
+				proof = new ProofPrefix(username, group.getProofPrefix(username, salt));
+				this.proof = proof;
+			}
+			
+			return proof.prefix;
+		}
+	}
+	
+	/**
+	 * A proof prefix and the user it was computed for.
+	 */
+	private static final class ProofPrefix{
+		
+		final String username;
+		final MessageDigest prefix;
+		
+		ProofPrefix(String username, MessageDigest prefix) {
+			
+			this.username = username;
+			this.prefix = prefix;
 		}
 	}
 }
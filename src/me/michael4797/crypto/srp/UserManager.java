@@ -1,5 +1,8 @@
 package me.michael4797.crypto.srp;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 import me.michael4797.crypto.srp.SRPUser.PasswordData;
 
 /**
@@ -12,7 +15,31 @@ public interface UserManager {
 	 * @param username The user to lookup.
 	 * @return The password salt/verifier for the specified user.
 	 * @throws SRPException If the user does not exist or an error was encountered
-	 * while accessing the user's password data.
+	 * while accessing the user's password data. Managers that can tell the two apart throw
+	 * {@link SRPException#UNKNOWN_USER} only when the user does not exist.
 	 */
 	PasswordData getUserData(String username) throws SRPException;
+	
+	/**
+	 * Retrieves stored password data for the specified user without waiting for the lookup to finish.
+	 * The default implementation calls {@link #getUserData(String)} and returns a completed stage, so
+	 * managers backed by a slow or remote store should override this, or be wrapped in an
+	 * {@link AsyncUserManager}.
+	 * @param username The user to lookup.
+	 * @return A stage that completes with the password salt/verifier for the specified user, or
+	 * completes exceptionally with the {@link SRPException} that {@link #getUserData(String)} would throw.
+	 */
+	default CompletionStage<PasswordData> getUserDataAsync(String username) {
+		
+		CompletableFuture<PasswordData> result = new CompletableFuture<>();
+		try {
+			
+			result.complete(getUserData(username));
+		}catch(SRPException e) {
+			
+			result.completeExceptionally(e);
+		}
+		
+		return result;
+	}
 }
@@ -0,0 +1,32 @@
+package me.michael4797.network;
+
+/**
+ * A ticket issued to a client by a server after a successful authentication, which the client
+ * can present on a later connection to resume its authenticated session without repeating the
+ * SRP exchange. The ticket is only valid with the server that issued it, until it expires, and
+ * can only be used once; each resumption is issued a new ticket.
+ * @see SRPSession#resumeAuthenticationAsync(ResumptionTicket)
+ */
+public final class ResumptionTicket {
+
+	final String username;
+	final byte[] key;
+	final byte[] ticket;
+	
+	
+	ResumptionTicket(String username, byte[] key, byte[] ticket) {
+		
+		this.username = username;
+		this.key = key;
+		this.ticket = ticket;
+	}
+	
+	/**
+	 * Retrieves the user the ticket was issued to.
+	 * @return The username.
+	 */
+	public String getUsername() {
+		
+		return username;
+	}
+}
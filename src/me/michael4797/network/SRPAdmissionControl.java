@@ -0,0 +1,182 @@
+package me.michael4797.network;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import me.michael4797.crypto.srp.SRPException;
+
+/**
+ * Decides whether a new authentication attempt may start before any user lookup or exponentiation
+ * is done for it. Attempts are rate limited per source and per username with token buckets, and
+ * the number of server handshakes in progress at once is capped. Buckets are kept in a fixed size
+ * table indexed by a hash of the source or username, so the memory used does not grow with the
+ * number of sources; keys that share a bucket share its limit. Admission does not lock.
+ * <p>
+ * Limiting attempts per username lets anyone slow down authentication for a known username, so
+ * the username limit should be generous compared to the source limit.
+ */
+public class SRPAdmissionControl {
+
+	private final int maxHandshakes;
+	private final AtomicInteger handshakes = new AtomicInteger();
+	private final LongAdder rejected = new LongAdder();
+	private volatile Buckets sources;
+	private volatile Buckets usernames;
+	private volatile SRPException rejection = SRPException.SERVER_BUSY;
+
+	/**
+	 * Creates a new SRPAdmissionControl without rate limits.
+	 * @param maxHandshakes The maximum number of server handshakes in progress at once.
+	 */
+	public SRPAdmissionControl(int maxHandshakes) {
+
+		if(maxHandshakes < 1)
+			throw new IllegalArgumentException("maxHandshakes must be positive.");
+
+		this.maxHandshakes = maxHandshakes;
+	}
+
+	/**
+	 * Limits the rate at which each source may start authentication attempts.
+	 * @param perSecond The sustained number of attempts allowed per second.
+	 * @param burst The number of attempts allowed at once after a quiet period.
+	 * @param buckets The number of buckets, rounded up to a power of two.
+	 */
+	public void setSourceLimit(double perSecond, int burst, int buckets) {
+
+		this.sources = new Buckets(perSecond, burst, buckets);
+	}
+
+	/**
+	 * Limits the rate at which authentication attempts may be started for each username.
+	 * @param perSecond The sustained number of attempts allowed per second.
+	 * @param burst The number of attempts allowed at once after a quiet period.
+	 * @param buckets The number of buckets, rounded up to a power of two.
+	 */
+	public void setUserLimit(double perSecond, int burst, int buckets) {
+
+		this.usernames = new Buckets(perSecond, burst, buckets);
+	}
+
+	/**
+	 * Sets the error sent to clients whose attempts are not admitted.
+	 * @param rejection The error, or null to drop rejected attempts without replying.
+	 */
+	public void setRejection(SRPException rejection) {
+
+		this.rejection = rejection;
+	}
+
+	/**
+	 * Returns the error sent to clients whose attempts are not admitted.
+	 * @return The error, or null if rejected attempts are dropped without replying.
+	 */
+	public SRPException getRejection() {
+
+		return rejection;
+	}
+
+	/**
+	 * Decides whether an authentication attempt may start, taking a token from the source's and
+	 * the username's buckets. A source that is not admitted does not take a token from the username.
+	 * @param source The key identifying where the attempt came from.
+	 * @param username The username being authenticated, or null if it is not known yet.
+	 * @param handshake True if the attempt starts a new handshake, which must be
+	 * {@link #release() released} when it ends.
+	 * @return True if the attempt was admitted.
+	 */
+	public boolean admit(Object source, String username, boolean handshake) {
+
+		Buckets sources = this.sources;
+		Buckets usernames = this.usernames;
+		if((sources != null && !sources.take(source)) || (usernames != null && username != null && !usernames.take(username))) {
+
+			rejected.increment();
+			return false;
+		}
+
+		if(!handshake)
+			return true;
+
+		for(int current = handshakes.get(); current < maxHandshakes; current = handshakes.get())
+			if(handshakes.compareAndSet(current, current + 1))
+				return true;
+
+		rejected.increment();
+		return false;
+	}
+
+	/**
+	 * Ends a handshake admitted by {@link #admit(Object, String, boolean)}.
+	 */
+	public void release() {
+
+		handshakes.decrementAndGet();
+	}
+
+	/**
+	 * Returns the number of admitted server handshakes in progress.
+	 * @return The number of handshakes.
+	 */
+	public int getHandshakes() {
+
+		return handshakes.get();
+	}
+
+	/**
+	 * Returns the number of attempts that were not admitted.
+	 * @return The number of rejected attempts.
+	 */
+	public long getRejected() {
+
+		return rejected.sum();
+	}
+
+	/**
+	 * A table of token buckets. Each bucket is a single time, the time at which it will be full
+	 * again, which is advanced by one interval for every token taken (the generic cell rate
+	 * algorithm), so taking a token is a single compare and set.
+	 */
+	private static final class Buckets {
+
+		private final AtomicLongArray full;
+		private final long interval;
+		private final long tolerance;
+		private final long origin = System.nanoTime();
+		private final int seed = ThreadLocalRandom.current().nextInt();
+
+		Buckets(double perSecond, int burst, int buckets) {
+
+			if(!(perSecond > 0))
+				throw new IllegalArgumentException("perSecond must be positive.");
+			if(burst < 1)
+				throw new IllegalArgumentException("burst must be positive.");
+			if(buckets < 1 || buckets > 1 << 30)
+				throw new IllegalArgumentException("buckets must be between 1 and " + (1 << 30) + ".");
+
+			this.full = new AtomicLongArray(Integer.bitCount(buckets) == 1 ? buckets : Integer.highestOneBit(buckets) << 1);
+			this.interval = Math.max(1, (long) (1e9/perSecond));
+			this.tolerance = interval*(burst - 1);
+		}
+
+		boolean take(Object key) {
+
+			//Keys hash to different buckets in each table, so a collision in one isn't repeated in another
+			int hash = (key.hashCode() ^ seed)*0x9E3779B1;
+			int bucket = (hash ^ (hash >>> 16)) & (full.length() - 1);
+			long now = System.nanoTime() - origin;
+			while(true) {
+
+				long current = full.get(bucket);
+				long start = Math.max(current, now);
+				if(start - now > tolerance)
+					return false;
+
+				if(full.compareAndSet(bucket, current, start + interval))
+					return true;
+			}
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package me.michael4797.network;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of threads used by the {@link SRPPacketListener} to run SRP steps, such as
+ * user lookups and exponentiations, away from the thread that received the packet. Steps for
+ * the same {@link SRPSession} always run one at a time, in the order they were submitted.
+ * Once the configured number of steps are waiting, further steps are rejected so that the
+ * caller can shed the load, and at most one step per session is kept to answer the rejections.
+ */
+public class SRPCryptoExecutor {
+
+	private final ExecutorService pool;
+	private final int queueLimit;
+	private final AtomicInteger queued = new AtomicInteger();
+
+	/**
+	 * Creates a new SRPCryptoExecutor.
+	 * @param parallelism The number of threads used to run SRP steps.
+	 * @param queueLimit The maximum number of steps that may be waiting to run before new
+	 * steps are rejected.
+	 */
+	public SRPCryptoExecutor(int parallelism, int queueLimit) {
+
+		if(parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be positive.");
+		if(queueLimit < 1)
+			throw new IllegalArgumentException("queueLimit must be positive.");
+
+		this.queueLimit = queueLimit;
+		this.pool = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+
+				Thread thread = new Thread(r, "SRP-Crypto-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Queues a step to run after every step previously queued for the same session.
+	 * @param session The session the step belongs to.
+	 * @param step The step to run.
+	 * @return False if the step was rejected because too many steps are waiting.
+	 */
+	public boolean execute(SRPSession session, Runnable step) {
+
+		if(queued.incrementAndGet() > queueLimit) {
+
+			queued.decrementAndGet();
+			return false;
+		}
+
+		return enqueue(session, step);
+	}
+
+	/**
+	 * Answers a step that was rejected for the specified session. If steps are still waiting for
+	 * the session, the answer runs once they have, so it does not run alongside them; it does not
+	 * count towards the queue limit, and while one is waiting further answers for the session are
+	 * dropped, so a flood of rejected steps holds a single answer per session. Otherwise the answer
+	 * runs on the calling thread.
+	 * @param session The session whose step was rejected.
+	 * @param rejection The answer, such as failing the session's authentication.
+	 */
+	void reject(SRPSession session, Runnable rejection) {
+
+		SessionQueue tasks = session.tasks;
+		synchronized(tasks) {
+
+			if(tasks.scheduled) {
+
+				if(tasks.rejection == null)
+					tasks.rejection = rejection;
+
+				return;
+			}
+		}
+
+		rejection.run();
+	}
+
+
+	private boolean enqueue(SRPSession session, Runnable step) {
+
+		SessionQueue tasks = session.tasks;
+		synchronized(tasks) {
+
+			tasks.steps.add(step);
+			if(tasks.scheduled)
+				return true;
+
+			tasks.scheduled = true;
+		}
+
+		try {
+
+			pool.execute(() -> runNext(tasks));
+			return true;
+		}catch(RejectedExecutionException e) {
+
+			//Steps queued by other threads while this one was being rejected still have to run
+			boolean more;
+			synchronized(tasks) {
+
+				tasks.steps.removeLastOccurrence(step);
+				more = !tasks.steps.isEmpty() || tasks.rejection != null;
+				tasks.scheduled = more;
+			}
+
+			queued.decrementAndGet();
+			if(more)
+				runNext(tasks);
+
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the number of steps waiting to run.
+	 * @return The queue depth.
+	 */
+	public int getQueueDepth() {
+
+		return queued.get();
+	}
+
+	/**
+	 * Stops accepting new steps. Steps that have already been accepted still run.
+	 */
+	public void shutdown() {
+
+		pool.shutdown();
+	}
+
+
+	private void runNext(SessionQueue tasks) {
+
+		Runnable step;
+		synchronized(tasks) {
+
+			step = tasks.steps.poll();
+			if(step == null) {
+
+				step = tasks.rejection;
+				tasks.rejection = null;
+			}
+			else
+				queued.decrementAndGet();
+		}
+
+		try {
+
+			step.run();
+		}finally {
+
+			//Resubmit rather than loop so one busy session can't hold a thread indefinitely
+			boolean more;
+			synchronized(tasks) {
+
+				more = !tasks.steps.isEmpty() || tasks.rejection != null;
+				tasks.scheduled = more;
+			}
+
+			if(more) {
+
+				try {
+
+					pool.execute(() -> runNext(tasks));
+				}catch(RejectedExecutionException e) {
+
+					runNext(tasks);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The steps waiting to run for a single session.
+	 */
+	static final class SessionQueue {
+
+		private final ArrayDeque<Runnable> steps = new ArrayDeque<>();
+		private Runnable rejection;
+		private boolean scheduled;
+	}
+}
@@ -0,0 +1,329 @@
+package me.michael4797.network;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Abandons server handshakes whose client stops responding, so the state held for them can be
+ * reclaimed. Each phase of a handshake has its own deadline, and the deadlines of every session are
+ * kept in a hashed timer wheel served by a single thread: scheduling and cancelling a deadline
+ * take constant time, and each tick only visits the deadlines that hash to it, so millions of
+ * pending handshakes can be tracked cheaply. Deadlines fire up to one tick late. The timer thread only
+ * marks a deadline as expired; abandoning the handshake waits for the session, which may be busy with
+ * a modular exponentiation, so it is handed to an executor rather than holding up the wheel.
+ */
+public class SRPHandshakeExpiry {
+
+	/**
+	 * The phases of a server handshake that can expire.
+	 */
+	public enum Phase {
+
+		/**
+		 * Waiting for the UserManager to find the client's password data.
+		 */
+		LOOKUP,
+
+		/**
+		 * Waiting for the client ephemeral after sending the salt.
+		 */
+		EPHEMERAL,
+
+		/**
+		 * Waiting for the client's proof after sending the server ephemeral.
+		 */
+		PROOF
+	}
+
+	private final long tick;
+	private final Executor executor;
+	private final ExecutorService owned; //The executor created by this instance, if one was not given
+	private final Timeout[] wheel;
+	private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+	private final long[] timeouts = new long[Phase.values().length];
+	private final LongAdder pending = new LongAdder();
+	private final LongAdder memory = new LongAdder();
+	private final Thread worker;
+	private volatile boolean running = true;
+
+	/**
+	 * Creates a new SRPHandshakeExpiry with a tick of 100 milliseconds, which abandons a phase
+	 * after 10 seconds using its own threads.
+	 */
+	public SRPHandshakeExpiry() {
+
+		this(100, TimeUnit.MILLISECONDS, 512);
+	}
+
+	/**
+	 * Creates a new SRPHandshakeExpiry, which abandons a phase after 10 seconds using its own
+	 * threads, one per processor and at least two, so that one busy session does not delay the rest.
+	 * @param tick The precision of the deadlines.
+	 * @param unit The unit of the tick.
+	 * @param slots The number of slots in the wheel, rounded up to a power of two. Deadlines more than
+	 * this many ticks away are visited once per turn of the wheel until they are due.
+	 */
+	public SRPHandshakeExpiry(long tick, TimeUnit unit, int slots) {
+
+		this(tick, unit, slots, Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+
+				Thread thread = new Thread(r, "SRP-HandshakeAbandon-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		}), true);
+	}
+
+	/**
+	 * Creates a new SRPHandshakeExpiry, which abandons a phase after 10 seconds.
+	 * @param tick The precision of the deadlines.
+	 * @param unit The unit of the tick.
+	 * @param slots The number of slots in the wheel, rounded up to a power of two. Deadlines more than
+	 * this many ticks away are visited once per turn of the wheel until they are due.
+	 * @param executor The executor that abandons handshakes whose deadline has passed.
+	 */
+	public SRPHandshakeExpiry(long tick, TimeUnit unit, int slots, Executor executor) {
+
+		this(tick, unit, slots, executor, false);
+	}
+
+
+	private SRPHandshakeExpiry(long tick, TimeUnit unit, int slots, Executor executor, boolean owned) {
+
+		if(tick < 1)
+			throw new IllegalArgumentException("tick must be positive.");
+		if(slots < 1 || slots > 1 << 30)
+			throw new IllegalArgumentException("slots must be between 1 and " + (1 << 30) + ".");
+
+		this.tick = unit.toNanos(tick);
+		this.executor = executor;
+		this.owned = owned ? (ExecutorService) executor : null;
+		this.wheel = new Timeout[Integer.bitCount(slots) == 1 ? slots : Integer.highestOneBit(slots) << 1];
+		for(Phase phase : Phase.values())
+			timeouts[phase.ordinal()] = TimeUnit.SECONDS.toNanos(10);
+
+		this.worker = new Thread(this::run, "SRP-HandshakeExpiry");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Sets the time allowed for the specified phase, which applies to phases started after this call.
+	 * @param phase The phase.
+	 * @param timeout The time allowed, or 0 to never abandon the phase.
+	 * @param unit The unit of the timeout.
+	 */
+	public synchronized void setTimeout(Phase phase, long timeout, TimeUnit unit) {
+
+		if(timeout < 0)
+			throw new IllegalArgumentException("timeout must not be negative.");
+
+		timeouts[phase.ordinal()] = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Returns the time allowed for the specified phase.
+	 * @param phase The phase.
+	 * @param unit The unit to return the timeout in.
+	 * @return The time allowed, or 0 if the phase is never abandoned.
+	 */
+	public synchronized long getTimeout(Phase phase, TimeUnit unit) {
+
+		return unit.convert(timeouts[phase.ordinal()], TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the number of handshakes waiting on a deadline.
+	 * @return The number of pending handshakes.
+	 */
+	public long getPending() {
+
+		return pending.sum();
+	}
+
+	/**
+	 * Returns an estimate of the memory held by the pending handshakes, which would be reclaimed
+	 * if they all expired.
+	 * @return The estimated size in bytes.
+	 */
+	public long getPendingMemory() {
+
+		return memory.sum();
+	}
+
+	/**
+	 * Returns an estimate of the average memory held by a pending handshake.
+	 * @return The estimated size in bytes, or 0 if there are no pending handshakes.
+	 */
+	public long getMemoryPerHandshake() {
+
+		long pending = this.pending.sum();
+		return pending <= 0 ? 0 : memory.sum()/pending;
+	}
+
+	/**
+	 * Stops the timer thread, and the threads that abandon handshakes if no executor was given.
+	 * Pending deadlines no longer fire.
+	 */
+	public void shutdown() {
+
+		running = false;
+		LockSupport.unpark(worker);
+		if(owned != null)
+			owned.shutdown();
+	}
+
+	/**
+	 * Schedules the specified task to be handed to the executor when the specified phase has taken
+	 * too long.
+	 * @param phase The phase that is starting.
+	 * @param bytes An estimate of the memory held by the handshake during the phase.
+	 * @param task The task that abandons the handshake.
+	 * @return The deadline, or null if the phase is never abandoned.
+	 */
+	Timeout schedule(Phase phase, long bytes, Runnable task) {
+
+		long timeout;
+		synchronized(this) {
+
+			timeout = timeouts[phase.ordinal()];
+		}
+
+		if(timeout == 0)
+			return null;
+
+		Timeout deadline = new Timeout(this, System.nanoTime() + timeout, bytes, task);
+		pending.increment();
+		memory.add(bytes);
+		added.add(deadline);
+		return deadline;
+	}
+
+
+	private void run() {
+
+		long start = System.nanoTime();
+		long ticks = 0;
+		while(running) {
+
+			//Sleep until the end of the current tick
+			long end = start + (ticks + 1)*tick;
+			for(long now = System.nanoTime(); running && end - now > 0; now = System.nanoTime())
+				LockSupport.parkNanos(this, end - now);
+
+			for(Timeout deadline = added.poll(); deadline != null; deadline = added.poll()) {
+
+				if(deadline.state != Timeout.PENDING)
+					continue;
+
+				long due = Math.max((deadline.deadline - start)/tick, ticks);
+				deadline.rounds = (due - ticks)/wheel.length;
+				int slot = (int) (due & (wheel.length - 1));
+				deadline.next = wheel[slot];
+				wheel[slot] = deadline;
+			}
+
+			expire((int) (ticks & (wheel.length - 1)));
+			ticks++;
+		}
+	}
+
+	/**
+	 * Fires the due deadlines in the specified slot and unlinks them, along with any that were
+	 * cancelled. The tasks of the fired deadlines run on the executor.
+	 */
+	private void expire(int slot) {
+
+		Timeout previous = null;
+		for(Timeout deadline = wheel[slot]; deadline != null; deadline = deadline.next) {
+
+			if(deadline.state == Timeout.PENDING && deadline.rounds-- > 0) {
+
+				previous = deadline;
+				continue;
+			}
+
+			if(previous == null)
+				wheel[slot] = deadline.next;
+			else
+				previous.next = deadline.next;
+
+			if(deadline.finish(Timeout.EXPIRED)) {
+
+				try {
+					executor.execute(deadline.task);
+				}catch(RejectedExecutionException e) {
+
+					//The session would otherwise hold its handshake until it disconnects
+					try {
+						deadline.task.run();
+					}catch(RuntimeException suppressed) {}
+				}
+
+				deadline.task = null;
+			}
+		}
+	}
+
+	/**
+	 * A scheduled deadline.
+	 */
+	static final class Timeout {
+
+		private static final int PENDING = 0;
+		private static final int EXPIRED = 1;
+		private static final int CANCELLED = 2;
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+		private final SRPHandshakeExpiry expiry;
+		private final long deadline;
+		private final long bytes;
+		private Runnable task;
+		private volatile int state;
+		private long rounds;
+		private Timeout next;
+
+		Timeout(SRPHandshakeExpiry expiry, long deadline, long bytes, Runnable task) {
+
+			this.expiry = expiry;
+			this.deadline = deadline;
+			this.bytes = bytes;
+			this.task = task;
+		}
+
+		/**
+		 * Prevents the deadline from firing if it has not already. The timer thread unlinks it the
+		 * next time it visits its slot.
+		 */
+		void cancel() {
+
+			//Let the session go now rather than when the timer thread gets to this deadline
+			if(finish(CANCELLED))
+				task = null;
+		}
+
+		private boolean finish(int state) {
+
+			if(!STATE.compareAndSet(this, PENDING, state))
+				return false;
+
+			expiry.pending.decrement();
+			expiry.memory.add(-bytes);
+			return true;
+		}
+	}
+}
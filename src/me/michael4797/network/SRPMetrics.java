@@ -0,0 +1,399 @@
+package me.michael4797.network;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import me.michael4797.crypto.srp.SRPException;
+
+/**
+ * Records how long each step of the server's handshakes takes, how many handshakes are in progress,
+ * and why authentications fail. Every counter is a {@link LongAdder}, which spreads concurrent
+ * updates across cells, so recording never locks or contends on a single value. The metrics can be
+ * registered as a platform MXBean, and can be pushed periodically to an {@link Exporter}.
+ */
+public class SRPMetrics implements SRPMetricsMXBean{
+
+	private static final ScheduledExecutorService exporters = Executors.newSingleThreadScheduledExecutor(r -> {
+
+		Thread thread = new Thread(r, "SRP-MetricsExporter");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Histogram lookup = new Histogram();
+	private final Histogram ephemeral = new Histogram();
+	private final Histogram verification = new Histogram();
+	private final Histogram handshake = new Histogram();
+	private final Histogram queue = new Histogram();
+	private final LongAdder handshakesInFlight = new LongAdder();
+	private final LongAdder lookupsInFlight = new LongAdder();
+	private final LongAdder[] errors = new LongAdder[256];
+	private volatile SRPCryptoExecutor executor;
+
+
+	public SRPMetrics() {
+
+		for(int i = 0; i < errors.length; i++)
+			errors[i] = new LongAdder();
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server.
+	 * @param name The name distinguishing these metrics from those of other receivers.
+	 * @return The name the metrics were registered under.
+	 * @throws JMException If the metrics could not be registered.
+	 */
+	public ObjectName register(String name) throws JMException {
+
+		ObjectName objectName = new ObjectName("me.michael4797.srp:type=SRPMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/**
+	 * Passes a {@link #snapshot() snapshot} of these metrics to the specified exporter periodically.
+	 * @param exporter The exporter.
+	 * @param period The time between exports.
+	 * @param unit The unit of the period.
+	 * @return A future that stops the exports when cancelled.
+	 */
+	public ScheduledFuture<?> startExporter(Exporter exporter, long period, TimeUnit unit) {
+
+		return exporters.scheduleAtFixedRate(() -> exporter.export(snapshot()), period, period, unit);
+	}
+
+	/**
+	 * Returns the current value of every metric by name. Latencies are split into their count,
+	 * mean, percentiles, and maximum, in nanoseconds.
+	 * @return The metrics.
+	 */
+	public Map<String, Long> snapshot() {
+
+		Map<String, Long> values = new LinkedHashMap<>();
+		put(values, "lookup", getLookupLatency());
+		put(values, "ephemeral", getEphemeralLatency());
+		put(values, "verification", getVerificationLatency());
+		put(values, "handshake", getHandshakeLatency());
+		put(values, "queue", getQueueLatency());
+		values.put("handshake.completed", getHandshakesCompleted());
+		values.put("handshake.inFlight", getHandshakesInFlight());
+		values.put("lookup.inFlight", getLookupsInFlight());
+		values.put("queue.depth", (long) getQueueDepth());
+		for(Map.Entry<String, Long> error : getErrors().entrySet())
+			values.put("error." + error.getKey(), error.getValue());
+
+		return values;
+	}
+
+
+	@Override
+	public Latency getLookupLatency() {
+
+		return lookup.snapshot();
+	}
+
+
+	@Override
+	public Latency getEphemeralLatency() {
+
+		return ephemeral.snapshot();
+	}
+
+
+	@Override
+	public Latency getVerificationLatency() {
+
+		return verification.snapshot();
+	}
+
+
+	@Override
+	public Latency getHandshakeLatency() {
+
+		return handshake.snapshot();
+	}
+
+
+	@Override
+	public Latency getQueueLatency() {
+
+		return queue.snapshot();
+	}
+
+
+	@Override
+	public long getHandshakesCompleted() {
+
+		return handshake.count();
+	}
+
+
+	@Override
+	public long getHandshakesInFlight() {
+
+		return handshakesInFlight.sum();
+	}
+
+
+	@Override
+	public long getLookupsInFlight() {
+
+		return lookupsInFlight.sum();
+	}
+
+
+	@Override
+	public int getQueueDepth() {
+
+		SRPCryptoExecutor executor = this.executor;
+		return executor == null ? 0 : executor.getQueueDepth();
+	}
+
+
+	@Override
+	public Map<String, Long> getErrors() {
+
+		Map<String, Long> counts = new LinkedHashMap<>();
+		for(int i = 0; i < errors.length; i++) {
+
+			long count = errors[i].sum();
+			if(count == 0)
+				continue;
+
+			SRPException error = SRPException.fromByte((byte) i);
+			counts.put(error == null ? "Error" + i : error.getClass().getSimpleName(), count);
+		}
+
+		return counts;
+	}
+
+
+	void setExecutor(SRPCryptoExecutor executor) {
+
+		this.executor = executor;
+	}
+
+
+	void handshakeStarted() {
+
+		handshakesInFlight.increment();
+	}
+
+	/**
+	 * @param nanos The length of the handshake, or -1 if it did not finish.
+	 */
+	void handshakeEnded(long nanos) {
+
+		handshakesInFlight.decrement();
+		if(nanos >= 0)
+			handshake.record(nanos);
+	}
+
+
+	void lookupStarted() {
+
+		lookupsInFlight.increment();
+	}
+
+
+	void lookupEnded(long nanos) {
+
+		lookupsInFlight.decrement();
+		lookup.record(nanos);
+	}
+
+
+	void ephemeral(long nanos) {
+
+		ephemeral.record(nanos);
+	}
+
+
+	void verification(long nanos) {
+
+		verification.record(nanos);
+	}
+
+
+	void queued(long nanos) {
+
+		queue.record(nanos);
+	}
+
+
+	void error(byte id) {
+
+		errors[id & 255].increment();
+	}
+
+
+	private static void put(Map<String, Long> values, String name, Latency latency) {
+
+		values.put(name + ".count", latency.getCount());
+		values.put(name + ".meanNanos", latency.getMeanNanos());
+		values.put(name + ".p50Nanos", latency.getP50Nanos());
+		values.put(name + ".p99Nanos", latency.getP99Nanos());
+		values.put(name + ".p999Nanos", latency.getP999Nanos());
+		values.put(name + ".maxNanos", latency.getMaxNanos());
+	}
+
+	/**
+	 * Receives snapshots of the metrics, for instance to forward them to a monitoring system.
+	 */
+	public interface Exporter{
+
+		/**
+		 * Called periodically with the current metrics.
+		 * @param metrics The value of every metric by name.
+		 * @see SRPMetrics#snapshot()
+		 */
+		void export(Map<String, Long> metrics);
+	}
+
+	/**
+	 * A summary of the times recorded by a histogram.
+	 */
+	public static final class Latency {
+
+		private final long count;
+		private final long mean;
+		private final long p50;
+		private final long p99;
+		private final long p999;
+		private final long max;
+
+		Latency(long count, long mean, long p50, long p99, long p999, long max) {
+
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p99 = p99;
+			this.p999 = p999;
+			this.max = max;
+		}
+
+		public long getCount() {
+
+			return count;
+		}
+
+		public long getMeanNanos() {
+
+			return mean;
+		}
+
+		public long getP50Nanos() {
+
+			return p50;
+		}
+
+		public long getP99Nanos() {
+
+			return p99;
+		}
+
+		public long getP999Nanos() {
+
+			return p999;
+		}
+
+		public long getMaxNanos() {
+
+			return max;
+		}
+	}
+
+	/**
+	 * A histogram of times with four buckets for every power of two, so recorded times are
+	 * accurate to within an eighth of their value.
+	 */
+	private static final class Histogram {
+
+		private static final int BUCKETS = 248;
+
+		private final LongAdder[] counts = new LongAdder[BUCKETS];
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		Histogram() {
+
+			for(int i = 0; i < BUCKETS; i++)
+				counts[i] = new LongAdder();
+		}
+
+		void record(long nanos) {
+
+			nanos = Math.max(0, nanos);
+			counts[bucket(nanos)].increment();
+			sum.add(nanos);
+			max.accumulate(nanos);
+		}
+
+		long count() {
+
+			long count = 0;
+			for(LongAdder bucket : counts)
+				count += bucket.sum();
+
+			return count;
+		}
+
+		Latency snapshot() {
+
+			long[] snapshot = new long[BUCKETS];
+			long count = 0;
+			for(int i = 0; i < BUCKETS; i++)
+				count += snapshot[i] = counts[i].sum();
+
+			long max = this.max.get();
+			long mean = count == 0 ? 0 : sum.sum()/count;
+			return new Latency(count, mean, percentile(snapshot, count, 0.5, max),
+					percentile(snapshot, count, 0.99, max), percentile(snapshot, count, 0.999, max), max);
+		}
+
+		private static long percentile(long[] snapshot, long count, double percentile, long max) {
+
+			if(count == 0)
+				return 0;
+
+			long rank = (long) Math.ceil(count*percentile);
+			long seen = 0;
+			for(int i = 0; i < BUCKETS; i++) {
+
+				seen += snapshot[i];
+				if(seen >= rank)
+					return Math.min(max, upperBound(i));
+			}
+
+			return max;
+		}
+
+		private static int bucket(long nanos) {
+
+			if(nanos < 4)
+				return (int) nanos;
+
+			int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+			return (exponent - 1)*4 + (int) ((nanos >>> (exponent - 2)) & 3);
+		}
+
+		private static long upperBound(int bucket) {
+
+			if(bucket < 4)
+				return bucket;
+
+			int exponent = bucket/4 + 1;
+			return ((4L + bucket%4 + 1) << (exponent - 2)) - 1;
+		}
+	}
+}
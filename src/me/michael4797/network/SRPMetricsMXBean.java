@@ -0,0 +1,69 @@
+package me.michael4797.network;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link SRPMetrics}.
+ */
+public interface SRPMetricsMXBean {
+
+	/**
+	 * Returns the time taken by the UserManager to find a user's password data.
+	 * @return The lookup latency.
+	 */
+	SRPMetrics.Latency getLookupLatency();
+
+	/**
+	 * Returns the time taken to compute the server ephemeral.
+	 * @return The ephemeral latency.
+	 */
+	SRPMetrics.Latency getEphemeralLatency();
+
+	/**
+	 * Returns the time taken to verify the client's proof and compute the server's proof.
+	 * @return The verification latency.
+	 */
+	SRPMetrics.Latency getVerificationLatency();
+
+	/**
+	 * Returns the time from a client's first packet to the server finishing the handshake.
+	 * @return The handshake latency.
+	 */
+	SRPMetrics.Latency getHandshakeLatency();
+
+	/**
+	 * Returns the time steps spent queued on the crypto executor.
+	 * @return The queue latency.
+	 */
+	SRPMetrics.Latency getQueueLatency();
+
+	/**
+	 * Returns the number of server handshakes that finished successfully.
+	 * @return The number of handshakes.
+	 */
+	long getHandshakesCompleted();
+
+	/**
+	 * Returns the number of server handshakes in progress.
+	 * @return The number of handshakes.
+	 */
+	long getHandshakesInFlight();
+
+	/**
+	 * Returns the number of user lookups in progress.
+	 * @return The number of lookups.
+	 */
+	long getLookupsInFlight();
+
+	/**
+	 * Returns the number of steps waiting on the crypto executor.
+	 * @return The queue depth, or 0 if there is no executor.
+	 */
+	int getQueueDepth();
+
+	/**
+	 * Returns the number of authentications that ended with each error.
+	 * @return The counts, by the simple name of the error's SRPException class.
+	 */
+	Map<String, Long> getErrors();
+}
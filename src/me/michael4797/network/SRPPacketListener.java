@@ -3,113 +3,211 @@ package me.michael4797.network;
 import me.michael4797.annotation.PacketHandler;
 import me.michael4797.crypto.srp.SRPException;
 import me.michael4797.network.packet.PacketClientEphemeral;
+import me.michael4797.network.packet.PacketClientHello;
 import me.michael4797.network.packet.PacketClientNegotiate;
 import me.michael4797.network.packet.PacketClientProof;
+import me.michael4797.network.packet.PacketClientResume;
+import me.michael4797.network.packet.PacketClientResumeProof;
 import me.michael4797.network.packet.PacketSRPError;
 import me.michael4797.network.packet.PacketServerEphemeral;
+import me.michael4797.network.packet.PacketServerFinish;
+import me.michael4797.network.packet.PacketServerHello;
 import me.michael4797.network.packet.PacketServerNegotiate;
 import me.michael4797.network.packet.PacketServerProof;
+import me.michael4797.network.packet.PacketServerResume;
+import me.michael4797.network.packet.PacketSessionTicket;
 
 /**
  * Implements the Secure Remote Protocol by listening for SRP packets and
- * responding with the next step in the authentication procedure.
+ * responding with the next step in the authentication procedure. If an
+ * {@link SRPCryptoExecutor} is set, each step runs on the executor instead of
+ * the thread that received the packet.
  */
 public class SRPPacketListener extends PacketListener{
 
+	private volatile SRPCryptoExecutor executor;
+	private volatile SRPMetrics metrics;
+	
+	/**
+	 * Sets the executor used to run SRP steps.
+	 * @param executor The SRPCryptoExecutor, or null to run steps on the receiving thread.
+	 */
+	public synchronized void setExecutor(SRPCryptoExecutor executor) {
+		
+		this.executor = executor;
+		if(metrics != null)
+			metrics.setExecutor(executor);
+	}
+	
+	/**
+	 * Sets the metrics that the executor's queue depth and the time steps spend queued are
+	 * recorded in.
+	 * @param metrics The SRPMetrics, or null to not record metrics.
+	 */
+	public synchronized void setMetrics(SRPMetrics metrics) {
+		
+		this.metrics = metrics;
+		if(metrics != null)
+			metrics.setExecutor(executor);
+	}
+
 	
 	@PacketHandler
 	public void onClientNegotiate(SRPSession session, PacketClientNegotiate packet) {
 		
-		try {
-			
-			session.clientNegotiate(packet.getUsername());
-		} catch (SRPException e) {
-			
-			session.failAuthentication();
-			session.sendPacketReliably(new PacketSRPError(e.getError()));
-			session.launchPacket();
-		}
+		if(session.admit(packet.getUsername()))
+			handle(session, () -> session.clientNegotiate(packet.getUsername(), packet.getMinimumGroup()));
 	}
 
 	
 	@PacketHandler
 	public void onServerNegotiate(SRPSession session, PacketServerNegotiate packet) {
 		
-		try {
-			
-			session.serverNegotiate(packet.getSalt());
-		} catch (SRPException e) {
-			
-			session.failAuthentication();
-			session.sendPacketReliably(new PacketSRPError(e.getError()));
-			session.launchPacket();
-		}
+		handle(session, () -> session.serverNegotiate(packet.getSalt(), packet.getGroup(), packet.getIterations()));
 	}
 
 	
 	@PacketHandler
 	public void onClientEphemeral(SRPSession session, PacketClientEphemeral packet) {
 		
-		try {
-			
-			session.clientEphemeral(packet.getA());
-		} catch (SRPException e) {
-			
-			session.failAuthentication();
-			session.sendPacketReliably(new PacketSRPError(e.getError()));
-			session.launchPacket();
-		}
+		handle(session, () -> session.clientEphemeral(packet.getA()));
 	}
 
 	
 	@PacketHandler
 	public void onServerEphemeral(SRPSession session, PacketServerEphemeral packet) {
 
-		try {
-			
-			session.serverEphemeral(packet.getB());
-		} catch (SRPException e) {
-			
-			session.failAuthentication();
-			session.sendPacketReliably(new PacketSRPError(e.getError()));
-			session.launchPacket();
-		}
+		handle(session, () -> session.serverEphemeral(packet.getB()));
 	}
 
 	
 	@PacketHandler
 	public void onClientProof(SRPSession session, PacketClientProof packet) {
 
-		try {
-			
-			session.clientProof(packet.getM());
-		} catch (SRPException e) {
-			
-			session.failAuthentication();
-			session.sendPacketReliably(new PacketSRPError(e.getError()));
-			session.launchPacket();
-		}
+		handle(session, () -> session.clientProof(packet.getM()));
 	}
 
 	
 	@PacketHandler
 	public void onServerProof(SRPSession session, PacketServerProof packet) {
 
+		handle(session, () -> session.serverProof(packet.getHAMK()));
+	}
+
+	
+	@PacketHandler
+	public void onClientHello(SRPSession session, PacketClientHello packet) {
+		
+		if(session.admit(packet.getUsername()))
+			handle(session, () -> session.clientHello(packet.getUsername(), packet.getGroup(), packet.getA()));
+	}
+
+	
+	@PacketHandler
+	public void onServerHello(SRPSession session, PacketServerHello packet) {
+
+		handle(session, () -> session.serverHello(packet.getSalt(), packet.getIterations(), packet.getB()));
+	}
+
+	
+	@PacketHandler
+	public void onServerFinish(SRPSession session, PacketServerFinish packet) {
+
+		handle(session, () -> session.serverFinish(packet.getHAMK(), packet.getData()));
+	}
+
+	
+	@PacketHandler
+	public void onSessionTicket(SRPSession session, PacketSessionTicket packet) {
+
+		handle(session, () -> session.sessionTicket(packet.getTicket()));
+	}
+
+	
+	@PacketHandler
+	public void onClientResume(SRPSession session, PacketClientResume packet) {
+
+		if(session.admit(null))
+			handle(session, () -> session.clientResume(packet.getTicket(), packet.getNonce()));
+	}
+
+	
+	@PacketHandler
+	public void onServerResume(SRPSession session, PacketServerResume packet) {
+
+		handle(session, () -> session.serverResume(packet.getNonce(), packet.getProof()));
+	}
+
+	
+	@PacketHandler
+	public void onClientResumeProof(SRPSession session, PacketClientResumeProof packet) {
+
+		handle(session, () -> session.clientResumeProof(packet.getProof()));
+	}
+
+	
+	@PacketHandler
+	public void onSRPError(SRPSession session, PacketSRPError packet) {
+		
+		SRPException received = packet.getException();
+		SRPException cause = received == null ? SRPException.INCORRECT_PROTOCOL : received;
+		
+		SRPCryptoExecutor executor = this.executor;
+		if(executor == null) {
+			
+			session.receiveError(cause);
+			return;
+		}
+		
+		Runnable step = () -> session.receiveError(cause);
+		if(!executor.execute(session, step))
+			executor.reject(session, step);
+	}
+	
+	/**
+	 * Runs the specified step, either immediately or on the executor. If the executor
+	 * is overloaded, the step is dropped and the authentication fails once the session's
+	 * earlier steps have run.
+	 */
+	private void handle(SRPSession session, Step step) {
+		
+		SRPCryptoExecutor executor = this.executor;
+		if(executor == null) {
+			
+			run(session, step);
+			return;
+		}
+		
+		SRPMetrics metrics = this.metrics;
+		long queued = System.nanoTime();
+		Runnable task = metrics == null ? () -> run(session, step) : () -> {
+			
+			metrics.queued(System.nanoTime() - queued);
+			run(session, step);
+		};
+		
+		if(!executor.execute(session, task))
+			executor.reject(session, () -> session.rejectAuthentication(SRPException.SERVER_BUSY));
+	}
+	
+	
+	private void run(SRPSession session, Step step) {
+		
 		try {
 			
-			session.serverProof(packet.getHAMK());
+			step.run();
 		} catch (SRPException e) {
 			
-			session.failAuthentication();
-			session.sendPacketReliably(new PacketSRPError(e.getError()));
-			session.launchPacket();
+			session.rejectAuthentication(e);
 		}
 	}
-
 	
-	@PacketHandler
-	public void onSRPError(SRPSession session, PacketSRPError packet) {
+	
+	/**
+	 * A single step of the authentication procedure.
+	 */
+	private interface Step {
 		
-		session.failAuthentication();
+		void run() throws SRPException;
 	}
 }
@@ -1,15 +1,27 @@
 package me.michael4797.network;
 
 import java.net.InetSocketAddress;
+import java.util.function.Function;
 
+import me.michael4797.crypto.srp.EphemeralPool;
+import me.michael4797.crypto.srp.SRPBatchVerifier;
+import me.michael4797.crypto.srp.SRPKeyDerivation;
+import me.michael4797.crypto.srp.SRPTicketIssuer;
 import me.michael4797.crypto.srp.UserManager;
 import me.michael4797.network.packet.PacketClientEphemeral;
+import me.michael4797.network.packet.PacketClientHello;
 import me.michael4797.network.packet.PacketClientNegotiate;
 import me.michael4797.network.packet.PacketClientProof;
+import me.michael4797.network.packet.PacketClientResume;
+import me.michael4797.network.packet.PacketClientResumeProof;
 import me.michael4797.network.packet.PacketSRPError;
 import me.michael4797.network.packet.PacketServerEphemeral;
+import me.michael4797.network.packet.PacketServerFinish;
+import me.michael4797.network.packet.PacketServerHello;
 import me.michael4797.network.packet.PacketServerNegotiate;
 import me.michael4797.network.packet.PacketServerProof;
+import me.michael4797.network.packet.PacketServerResume;
+import me.michael4797.network.packet.PacketSessionTicket;
 import me.michael4797.network.protocol.SessionHandle;
 import me.michael4797.network.protocol.TransportProtocol;
 
@@ -20,6 +32,16 @@ import me.michael4797.network.protocol.TransportProtocol;
 public class SRPPacketReceiver extends BasePacketReceiver{
 	
 	protected final UserManager users;
+	protected volatile EphemeralPool ephemerals;
+	protected volatile SRPBatchVerifier batch;
+	protected volatile SRPTicketIssuer tickets;
+	protected volatile Function<String, byte[]> earlyData;
+	protected volatile SRPAdmissionControl admission;
+	protected volatile SRPMetrics metrics;
+	protected volatile SRPHandshakeExpiry expiry;
+	protected volatile SRPKeyDerivation derivation;
+	protected volatile int maximumIterations = SRPSession.DEFAULT_MAXIMUM_ITERATIONS;
+	protected final SRPPacketListener listener = new SRPPacketListener();
 	
 	
 	public SRPPacketReceiver(int port, UserManager users) {
@@ -40,14 +62,162 @@ public class SRPPacketReceiver extends BasePacketReceiver{
 		addPacket(PacketServerEphemeral.class, PacketServerEphemeral::read);
 		addPacket(PacketServerProof.class, PacketServerProof::read);
 		addPacket(PacketSRPError.class, PacketSRPError::read);
-		addListener(new SRPPacketListener());
+		addPacket(PacketClientHello.class, PacketClientHello::read);
+		addPacket(PacketServerHello.class, PacketServerHello::read);
+		addPacket(PacketServerFinish.class, PacketServerFinish::read);
+		addPacket(PacketSessionTicket.class, PacketSessionTicket::read);
+		addPacket(PacketClientResume.class, PacketClientResume::read);
+		addPacket(PacketServerResume.class, PacketServerResume::read);
+		addPacket(PacketClientResumeProof.class, PacketClientResumeProof::read);
+		addListener(listener);
+	}
+	
+
+	/**
+	 * Sets the pool of precomputed server ephemerals used by sessions created after this call.
+	 * @param ephemerals The EphemeralPool, or null to compute server ephemerals inline.
+	 */
+	public void setEphemeralPool(EphemeralPool ephemerals) {
+		
+		this.ephemerals = ephemerals;
+	}
+	
+
+	/**
+	 * Sets the executor used to run SRP steps away from the thread that received the packet.
+	 * @param executor The SRPCryptoExecutor, or null to run SRP steps on the receiving thread.
+	 */
+	public void setCryptoExecutor(SRPCryptoExecutor executor) {
+		
+		listener.setExecutor(executor);
+	}
+	
+
+	/**
+	 * Sets the batch verifier used by sessions created after this call to compute server ephemerals
+	 * and verify client proofs.
+	 * @param batch The SRPBatchVerifier, or null to perform the computations immediately.
+	 */
+	public void setBatchVerifier(SRPBatchVerifier batch) {
+		
+		this.batch = batch;
+	}
+	
+
+	/**
+	 * Sets the issuer of resumption tickets used by sessions created after this call.
+	 * @param tickets The SRPTicketIssuer, or null to disable session resumption.
+	 */
+	public void setTicketIssuer(SRPTicketIssuer tickets) {
+		
+		this.tickets = tickets;
+	}
+	
+
+	/**
+	 * Sets the source of the application data sent with the server's proof at the end of a fast
+	 * handshake, used by sessions created after this call.
+	 * @param earlyData A function from the authenticated username to the data to send, or null.
+	 * @see SRPSession#setEarlyData(Function)
+	 */
+	public void setEarlyData(Function<String, byte[]> earlyData) {
+		
+		this.earlyData = earlyData;
+	}
+	
+
+	/**
+	 * Sets the admission control used by sessions created after this call to decide whether an
+	 * authentication attempt may start.
+	 * @param admission The SRPAdmissionControl, or null to admit every attempt.
+	 */
+	public void setAdmissionControl(SRPAdmissionControl admission) {
+		
+		this.admission = admission;
+	}
+	
+
+	/**
+	 * Sets the metrics that the handshakes of sessions created after this call, and the crypto
+	 * executor's queue, are recorded in.
+	 * @param metrics The SRPMetrics, or null to not record metrics.
+	 */
+	public void setMetrics(SRPMetrics metrics) {
+		
+		this.metrics = metrics;
+		listener.setMetrics(metrics);
+	}
+	
+
+	/**
+	 * Sets the deadlines used by sessions created after this call to abandon handshakes whose
+	 * client stops responding.
+	 * @param expiry The SRPHandshakeExpiry, or null to wait for clients indefinitely.
+	 */
+	public void setHandshakeExpiry(SRPHandshakeExpiry expiry) {
+		
+		this.expiry = expiry;
+	}
+	
+
+	/**
+	 * Sets the pool that clients of sessions created after this call derive their private keys on.
+	 * @param derivation The SRPKeyDerivation, or null to use a pool shared by every session.
+	 * @see SRPSession#setKeyDerivation(SRPKeyDerivation)
+	 */
+	public void setKeyDerivation(SRPKeyDerivation derivation) {
+		
+		this.derivation = derivation;
+	}
+	
+
+	/**
+	 * Sets the largest number of PBKDF2 iterations the clients of sessions created after this call
+	 * derive their private keys with.
+	 * @param maximum The largest number of iterations accepted.
+	 * @see SRPSession#setMaximumIterations(int)
+	 */
+	public void setMaximumIterations(int maximum) {
+		
+		if(maximum < 0)
+			throw new IllegalArgumentException("maximum must not be negative.");
+		
+		this.maximumIterations = maximum;
+	}
+	
+
+	/**
+	 * Returns the key identifying the client behind the specified handle to the admission
+	 * control's per source limit. By default this is the client's host address, so every
+	 * connection and source port of a host shares one limit; subclasses may return a coarser key,
+	 * such as the host's network prefix, or a finer one. If the handle has no resolved remote
+	 * address, the handle itself is used.
+	 * @param handle The SessionHandle created by the underlying protocol.
+	 * @return The source key.
+	 */
+	protected Object getSource(SessionHandle handle) {
+		
+		InetSocketAddress remote = handle.getAddress();
+		if(remote == null || remote.getAddress() == null)
+			return handle;
+		
+		return remote.getAddress();
 	}
 	
 
 	@Override
 	protected SRPSession createSession(SessionHandle handle) {
 
-		return new SRPSession(handle, users, new BaseSessionProtocol());
+		SRPSession session = new SRPSession(handle, users, ephemerals, new BaseSessionProtocol());
+		session.setBatchVerifier(batch);
+		session.setTicketIssuer(tickets);
+		session.setEarlyData(earlyData);
+		session.setAdmissionControl(admission, getSource(handle));
+		session.setMetrics(metrics);
+		session.setHandshakeExpiry(expiry);
+		session.setKeyDerivation(derivation);
+		session.setMaximumIterations(maximumIterations);
+		return session;
 	}
 	
 
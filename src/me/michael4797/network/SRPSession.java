@@ -1,14 +1,41 @@
 package me.michael4797.network;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import me.michael4797.crypto.srp.EphemeralPool;
+import me.michael4797.crypto.srp.SRPBatchVerifier;
+import me.michael4797.crypto.srp.SRPKeyDerivation;
+import me.michael4797.crypto.srp.SRPRecordLayer;
+import me.michael4797.crypto.srp.SRPResumption;
+import me.michael4797.crypto.srp.SRPTicketIssuer;
 import me.michael4797.crypto.srp.UserManager;
 import me.michael4797.network.packet.PacketClientEphemeral;
+import me.michael4797.network.packet.PacketClientHello;
 import me.michael4797.network.packet.PacketClientNegotiate;
 import me.michael4797.network.packet.PacketClientProof;
+import me.michael4797.network.packet.PacketClientResume;
+import me.michael4797.network.packet.PacketClientResumeProof;
+import me.michael4797.network.packet.PacketSRPError;
 import me.michael4797.network.packet.PacketServerEphemeral;
+import me.michael4797.network.packet.PacketServerFinish;
+import me.michael4797.network.packet.PacketServerHello;
 import me.michael4797.network.packet.PacketServerNegotiate;
 import me.michael4797.network.packet.PacketServerProof;
+import me.michael4797.network.packet.PacketServerResume;
+import me.michael4797.network.packet.PacketSessionTicket;
 import me.michael4797.network.protocol.SessionHandle;
 import me.michael4797.crypto.srp.SRPException;
+import me.michael4797.crypto.srp.SRPGroup;
 import me.michael4797.crypto.srp.SRPServer;
 import me.michael4797.crypto.srp.SRPUser;
 import me.michael4797.crypto.srp.SRPUser.PasswordData;
@@ -19,11 +46,59 @@ import me.michael4797.crypto.srp.SRPUser.PasswordData;
  */
 public class SRPSession extends Session{
 
-	private final Object lock = new Object();
+	//Object headers, references, and timer entry held for a handshake, on top of its byte arrays
+	private static final int HANDSHAKE_OVERHEAD = 512;
+	
+	//The cost accepted from a server by default, a few seconds of PBKDF2 on a typical host
+	static final int DEFAULT_MAXIMUM_ITERATIONS = 1 << 20;
+	
+	//Derives keys for clients without a pool of their own, so they never run on the network thread
+	private static final SRPKeyDerivation derivations = new SRPKeyDerivation(Runtime.getRuntime().availableProcessors(), 256);
+	
+	private static final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+		
+		Thread thread = new Thread(r, "SRP-Timeouts");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	final SRPCryptoExecutor.SessionQueue tasks = new SRPCryptoExecutor.SessionQueue();
+	private volatile CompletableFuture<Void> result;
 	private boolean authenticated = false;
+	private byte[] sessionKey;
+	private boolean client;
+	private SRPRecordLayer records;
 	private final UserManager manager;
+	private final EphemeralPool ephemerals;
+	private volatile SRPBatchVerifier batch;
+	private volatile SRPTicketIssuer tickets;
+	private CompletionStage<PasswordData> lookup;
 	private SRPServer server;
 	private SRPUser user;
+	private SRPResumption resumption;
+	private boolean resumingClient;
+	private String resumedUser;
+	private byte[] ticketKey;
+	private volatile ResumptionTicket ticket;
+	private boolean fast;
+	private volatile boolean fastHandshake;
+	private volatile long fallback;
+	private volatile Function<String, byte[]> earlyData;
+	private volatile byte[] received;
+	private volatile SRPGroup group = SRPGroup.DEFAULT;
+	private volatile SRPGroup minimumGroup = SRPGroup.DEFAULT;
+	private volatile SRPAdmissionControl admission;
+	private volatile Object source;
+	private SRPAdmissionControl admittedBy;
+	private volatile SRPMetrics metrics;
+	private SRPMetrics timedBy;
+	private long started;
+	private volatile SRPHandshakeExpiry expiry;
+	private SRPHandshakeExpiry.Timeout deadline;
+	private long deadlines;
+	private volatile SRPKeyDerivation derivation;
+	private volatile int maximumIterations = DEFAULT_MAXIMUM_ITERATIONS;
+	private CompletableFuture<Void> derived;
 	
 	/**
 	 * Creates a new SRPSession, backed by the specified {@link SessionHandle}, using the specified {@link SessionProtocol}
@@ -34,23 +109,182 @@ public class SRPSession extends Session{
 	 */
 	public SRPSession(SessionHandle handle, UserManager manager, SessionProtocol protocol) {
 		
+		this(handle, manager, null, protocol);
+	}
+	
+	/**
+	 * Creates a new SRPSession, backed by the specified {@link SessionHandle}, using the specified {@link SessionProtocol}
+	 * and using the specified {@link UserManager} to retrieve password data for authentication. Server ephemerals
+	 * are taken from the specified {@link EphemeralPool}.
+	 * @param handle The SessionHandle created by the underlying protocol.
+	 * @param manager The UserManager used to retrieve password data for clients.
+	 * @param ephemerals The pool of precomputed server ephemerals, or null to compute them inline.
+	 * @param protocol The SessionProtocol used by this Session.
+	 */
+	public SRPSession(SessionHandle handle, UserManager manager, EphemeralPool ephemerals, SessionProtocol protocol) {
+		
 		super(handle, protocol);
 		this.manager = manager;
+		this.ephemerals = ephemerals;
+	}
+	
+	
+	/**
+	 * Sets the batch verifier used to compute server ephemerals and verify client proofs. When set,
+	 * the responses to the client are sent once the batch containing the computation has run.
+	 * @param batch The SRPBatchVerifier, or null to perform the computations immediately.
+	 */
+	public void setBatchVerifier(SRPBatchVerifier batch) {
+		
+		this.batch = batch;
+	}
+	
+	/**
+	 * Sets the issuer of resumption tickets. When set, a ticket is sent to each client that
+	 * authenticates, and clients presenting a valid ticket may resume their session.
+	 * @param tickets The SRPTicketIssuer, or null to disable session resumption.
+	 */
+	public void setTicketIssuer(SRPTicketIssuer tickets) {
+		
+		this.tickets = tickets;
+	}
+	
+	/**
+	 * Sets the admission control that decides whether the client may start an authentication
+	 * attempt before any work is done for it.
+	 * @param admission The SRPAdmissionControl, or null to admit every attempt.
+	 * @param source The key identifying the client to the admission control's per source limit.
+	 */
+	public void setAdmissionControl(SRPAdmissionControl admission, Object source) {
+		
+		this.source = source;
+		this.admission = admission;
+	}
+	
+	/**
+	 * Sets the metrics that this Session's server handshakes are recorded in.
+	 * @param metrics The SRPMetrics, or null to not record metrics.
+	 */
+	public void setMetrics(SRPMetrics metrics) {
+		
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Sets the deadlines used to abandon server handshakes whose client stops responding.
+	 * @param expiry The SRPHandshakeExpiry, or null to wait for the client indefinitely.
+	 */
+	public void setHandshakeExpiry(SRPHandshakeExpiry expiry) {
+		
+		this.expiry = expiry;
+	}
+	
+	/**
+	 * Sets whether this client uses the fast handshake, which sends the client ephemeral with the
+	 * username and receives the server ephemeral with the salt, saving a round trip. If the server
+	 * rejects the fast handshake, or does not answer within the fallback time, the authentication
+	 * continues with the original handshake and later authentications on this Session use it.
+	 * @param enabled True to use the fast handshake.
+	 * @param fallback The time to wait for the server's answer before falling back, or 0 to only
+	 * fall back when the server rejects the fast handshake.
+	 * @param unit The unit of the fallback time.
+	 */
+	public void setFastHandshake(boolean enabled, long fallback, TimeUnit unit) {
+		
+		this.fallback = unit.toNanos(fallback);
+		this.fastHandshake = enabled;
+	}
+	
+	/**
+	 * Sets the groups this client accepts. The fast handshake sends a client ephemeral in the preferred
+	 * group, and falls back to the original handshake if the user's verifier belongs to another group.
+	 * Servers answering with a group smaller than the minimum are rejected, so a forged answer cannot
+	 * downgrade the authentication.
+	 * @param group The group the user's verifier is expected to belong to.
+	 * @param minimum The smallest group this client authenticates in.
+	 */
+	public void setGroups(SRPGroup group, SRPGroup minimum) {
+		
+		if(!group.isAtLeast(minimum))
+			throw new IllegalArgumentException("The preferred group must be at least the minimum group.");
+		
+		this.minimumGroup = minimum;
+		this.group = group;
+	}
+	
+	/**
+	 * Sets the pool this client derives its private key on, for users whose verifier was generated
+	 * with PBKDF2. The client ephemeral is sent before the derivation starts, so the derivation
+	 * overlaps the server computing its ephemeral.
+	 * @param derivation The SRPKeyDerivation, or null to use a pool shared by every session.
+	 */
+	public void setKeyDerivation(SRPKeyDerivation derivation) {
+		
+		this.derivation = derivation;
+	}
+	
+	/**
+	 * Sets the largest number of PBKDF2 iterations this client derives its private key with. The
+	 * count is chosen by the server before it has proven anything, so servers asking for more are
+	 * rejected rather than allowed to tie up the client. The default is 1048576.
+	 * @param maximum The largest number of iterations accepted.
+	 */
+	public void setMaximumIterations(int maximum) {
+		
+		if(maximum < 0)
+			throw new IllegalArgumentException("maximum must not be negative.");
+		
+		this.maximumIterations = maximum;
+	}
+	
+	/**
+	 * Sets the source of the application data a server sends along with its proof at the end of
+	 * a fast handshake. The data is encrypted with this Session's {@link #getRecordLayer() record layer}.
+	 * @param earlyData A function from the authenticated username to the data to send, which may
+	 * return null to send nothing, or null to never send data.
+	 */
+	public void setEarlyData(Function<String, byte[]> earlyData) {
+		
+		this.earlyData = earlyData;
+	}
+	
+	/**
+	 * Retrieves the application data the server sent along with its proof at the end of the most
+	 * recent fast handshake.
+	 * @return The decrypted data, or null if the server did not send any.
+	 */
+	public byte[] getEarlyData() {
+		
+		return received;
+	}
+	
+	/**
+	 * Retrieves the ticket most recently issued to this client by the server, which can be used to
+	 * resume the session on a later connection. The ticket arrives shortly after the authentication
+	 * finishes, and only if the server issues tickets.
+	 * @return The ticket, or null if none has been received.
+	 */
+	public ResumptionTicket getResumptionTicket() {
+		
+		return ticket;
 	}
 	
 	
 	@Override
 	protected synchronized void onDisconnect() {
 		
-		if(server != null || user != null) {
+		endHandshake(false);
+		if(server != null || user != null || lookup != null || resumption != null) {
 			
-			synchronized(lock) {
-				
-				server = null;
-				user = null;
-				authenticated = false;
-				lock.notifyAll();
-			}
+			lookup = null;
+			resumption = null;
+			server = null;
+			user = null;
+			setAuthenticated(null, false);
+			
+			CompletableFuture<Void> attempt = result;
+			if(attempt != null)
+				attempt.completeExceptionally(SRPException.AUTHENTICATION_FAILED);
 		}
 		
 		super.onDisconnect();
@@ -64,48 +298,422 @@ public class SRPSession extends Session{
 	 */
 	public synchronized void startAuthentication(String username, String password) throws SRPException {
 		
-		if(server != null || user != null)
-			throw new SRPException.IncorrectProtocolException();
+		if(server != null || user != null || resumption != null)
+			throw SRPException.INCORRECT_PROTOCOL;
 		
 		if(authenticated)
-			authenticated = false;
+			setAuthenticated(null, false);
+		
+		SRPGroup group = this.group;
+		user = new SRPUser(username, password, group);
+		derived = null;
+		result = new CompletableFuture<>();
+		received = null;
+		fast = fastHandshake;
+		if(!fast) {
+			
+			sendPacketReliably(new PacketClientNegotiate(username, minimumGroup.getId()));
+			launchPacket();
+			return;
+		}
+		
+		sendPacketReliably(new PacketClientHello(username, group.getId(), user.getA()));
+		launchPacket();
+		
+		long fallback = this.fallback;
+		if(fallback > 0) {
+			
+			CompletableFuture<Void> attempt = result;
+			ScheduledFuture<?> timer = timeouts.schedule(() -> fallBack(attempt), fallback, TimeUnit.NANOSECONDS);
+			attempt.whenComplete((v, e) -> timer.cancel(false));
+		}
+	}
+	
+	/**
+	 * Restarts the specified attempt with the original handshake if the server has not answered
+	 * its fast handshake yet.
+	 * @return True if the attempt fell back to the original handshake.
+	 */
+	private synchronized boolean fallBack(CompletableFuture<Void> attempt) {
+		
+		if(result != attempt || user == null || !fast || derived != null || user.getSessionKey() != null)
+			return false;
+		
+		fast = false;
+		fastHandshake = false;
+		sendPacketReliably(new PacketClientNegotiate(user.getUsername(), minimumGroup.getId()));
+		launchPacket();
+		return true;
+	}
+	
+	/**
+	 * Called when the remote side reports an error. A server that does not support the fast
+	 * handshake causes the authentication to fall back to the original handshake, and any other
+	 * error fails the authentication.
+	 * @param cause The error reported.
+	 */
+	protected void receiveError(SRPException cause) {
+		
+		if(!(cause instanceof SRPException.IncorrectProtocolException) || !fallBack(result))
+			failAuthentication(cause);
+	}
+	
+	/**
+	 * Begins authenticating as a client with the specified username and password without blocking.
+	 * The returned future completes when the server's proof has been verified, or completes exceptionally
+	 * with the {@link SRPException} that ended the authentication. Cancelling the future abandons the
+	 * authentication and notifies the server.
+	 * @param username The username to authenticate.
+	 * @param password The password.
+	 * @return A future that completes when the authentication is finished.
+	 */
+	public CompletableFuture<Void> startAuthenticationAsync(String username, String password) {
+		
+		CompletableFuture<Void> attempt;
+		synchronized(this) {
+			
+			try {
+				
+				startAuthentication(username, password);
+			} catch (SRPException e) {
+				
+				attempt = new CompletableFuture<>();
+				attempt.completeExceptionally(e);
+				return attempt;
+			}
+			
+			attempt = result;
+		}
+		
+		attempt.whenComplete((v, e) -> {
+			
+			if(attempt.isCancelled())
+				abortAuthentication(attempt, SRPException.AUTHENTICATION_FAILED);
+		});
+		
+		return attempt;
+	}
+	
+	/**
+	 * Begins authenticating as a client with the specified username and password without blocking.
+	 * If the authentication has not finished within the specified time, it is abandoned, the server is
+	 * notified, and the returned future completes exceptionally with a
+	 * {@link SRPException.HandshakeTimeoutException}.
+	 * @param username The username to authenticate.
+	 * @param password The password.
+	 * @param timeout The maximum time to wait for the authentication to finish.
+	 * @param unit The unit of the timeout.
+	 * @return A future that completes when the authentication is finished.
+	 * @see #startAuthenticationAsync(String, String)
+	 */
+	public CompletableFuture<Void> startAuthenticationAsync(String username, String password, long timeout, TimeUnit unit) {
+		
+		CompletableFuture<Void> attempt = startAuthenticationAsync(username, password);
+		if(!attempt.isDone()) {
+			
+			ScheduledFuture<?> timer = timeouts.schedule(() -> abortAuthentication(attempt, SRPException.HANDSHAKE_TIMEOUT), timeout, unit);
+			attempt.whenComplete((v, e) -> timer.cancel(false));
+		}
+		
+		return attempt;
+	}
+	
+	/**
+	 * Abandons the specified authentication attempt if it is still in progress, notifying the server.
+	 */
+	private void abortAuthentication(CompletableFuture<Void> attempt, SRPException cause) {
+		
+		synchronized(this) {
+			
+			if(result != attempt || (user == null && resumption == null))
+				return;
+			
+			user = null;
+			resumption = null;
+		}
 		
-		user = new SRPUser(username, password);
-		sendPacketReliably(new PacketClientNegotiate(username));
+		sendPacketReliably(new PacketSRPError(cause.getError()));
 		launchPacket();
+		attempt.completeExceptionally(cause);
 	}
 	
 	/**
-	 * Retrieves the salt for the specified user and sends the appropriate response.
+	 * Decides whether the client may start an authentication attempt, before any lookup or
+	 * exponentiation is done for it. If it may not, the client is sent the admission control's
+	 * rejection, if any, and the attempt should be dropped without failing one already in progress.
+	 * @param username The username the client is authenticating, or null if it is not known yet.
+	 * @return True if the attempt was admitted.
+	 */
+	protected synchronized boolean admit(String username) {
+		
+		SRPAdmissionControl admission = this.admission;
+		if(admission == null)
+			return true;
+		
+		//A handshake already admitted, such as a fast handshake falling back, doesn't count twice
+		boolean handshake = admittedBy == null;
+		if(admission.admit(source, username, handshake)) {
+			
+			if(handshake)
+				admittedBy = admission;
+			
+			return true;
+		}
+		
+		SRPException rejection = admission.getRejection();
+		if(rejection != null) {
+			
+			SRPMetrics metrics = this.metrics;
+			if(metrics != null)
+				metrics.error(rejection.getError());
+			
+			sendPacketReliably(new PacketSRPError(rejection.getError()));
+			launchPacket();
+		}
+		
+		return false;
+	}
+	
+	
+	/**
+	 * Marks the start of a server handshake for the metrics, unless one is already being timed.
+	 */
+	private void startHandshake() {
+		
+		SRPMetrics metrics = this.metrics;
+		if(metrics == null || timedBy != null)
+			return;
+		
+		timedBy = metrics;
+		started = System.nanoTime();
+		metrics.handshakeStarted();
+	}
+	
+	/**
+	 * Ends the server handshake in progress, releasing its admission and recording it in the metrics.
+	 * @param completed True if the handshake finished successfully.
+	 */
+	private void endHandshake(boolean completed) {
+		
+		cancelDeadline();
+		if(admittedBy != null) {
+			
+			admittedBy.release();
+			admittedBy = null;
+		}
+		
+		if(timedBy != null) {
+			
+			timedBy.handshakeEnded(completed ? System.nanoTime() - started : -1);
+			timedBy = null;
+		}
+	}
+	
+	/**
+	 * Starts the deadline for the specified phase of the server handshake, replacing the deadline
+	 * of the previous phase.
+	 * @param bytes An estimate of the memory held by the handshake during the phase.
+	 */
+	private void expireAfter(SRPHandshakeExpiry.Phase phase, long bytes) {
+		
+		cancelDeadline();
+		SRPHandshakeExpiry expiry = this.expiry;
+		if(expiry == null)
+			return;
+		
+		long armed = ++deadlines;
+		deadline = expiry.schedule(phase, HANDSHAKE_OVERHEAD + bytes, () -> expire(armed));
+	}
+	
+	
+	private void cancelDeadline() {
+		
+		if(deadline != null) {
+			
+			deadline.cancel();
+			deadline = null;
+		}
+	}
+	
+	/**
+	 * Abandons the server handshake if the specified deadline is still the current one, wiping
+	 * its secrets and notifying the client.
+	 */
+	private synchronized void expire(long armed) {
+		
+		if(armed != deadlines || deadline == null)
+			return;
+		
+		deadline = null;
+		if(server != null)
+			server.destroy();
+		
+		rejectAuthentication(SRPException.HANDSHAKE_TIMEOUT);
+	}
+	
+	/**
+	 * Starts looking up the specified user, recording the time taken in the metrics.
+	 */
+	private CompletionStage<PasswordData> lookUp(String username) {
+		
+		SRPMetrics metrics = this.metrics;
+		if(metrics == null)
+			return manager.getUserDataAsync(username);
+		
+		long start = System.nanoTime();
+		metrics.lookupStarted();
+		return manager.getUserDataAsync(username).whenComplete((data, e) -> metrics.lookupEnded(System.nanoTime() - start));
+	}
+	
+	/**
+	 * Retrieves the salt for the specified user and sends the appropriate response once the
+	 * {@link UserManager} has found it. The session is not locked while the lookup is in progress.
+	 * @param username The username of the client to being authenticating.
+	 * @param minimumGroup The id of the smallest group the client authenticates in.
+	 * @throws SRPException If an error is encountered during the authentication.
+	 */
+	protected synchronized void clientNegotiate(String username, byte minimumGroup) throws SRPException {
+		
+		//A client that gave up waiting for the fast handshake starts again with the original one
+		if(fast) {
+			
+			if(server != null)
+				server.destroy();
+			
+			fast = false;
+			lookup = null;
+			server = null;
+		}
+		
+		if(server != null || user != null || lookup != null || resumption != null)
+			throw SRPException.INCORRECT_PROTOCOL;
+		
+		startHandshake();
+		expireAfter(SRPHandshakeExpiry.Phase.LOOKUP, username.length()*2);
+		CompletionStage<PasswordData> pending = lookUp(username);
+		lookup = pending;
+		SRPGroup minimum = SRPGroup.fromId(minimumGroup);
+		pending.whenComplete((data, e) -> sendServerNegotiate(pending, username, minimum, data, e));
+	}
+	
+	/**
+	 * Retrieves the password data for the specified user and, once the {@link UserManager} has
+	 * found it, sends the salt and server ephemeral together. This begins a fast handshake.
 	 * @param username The username of the client to being authenticating.
+	 * @param group The id of the group the client ephemeral was generated in.
+	 * @param A The client ephemeral.
 	 * @throws SRPException If an error is encountered during the authentication.
 	 */
-	protected synchronized void clientNegotiate(String username) throws SRPException {
+	protected synchronized void clientHello(String username, byte group, byte[] A) throws SRPException {
 		
-		if(server != null || user != null)
-			throw new SRPException.IncorrectProtocolException();
+		if(server != null || user != null || lookup != null || resumption != null)
+			throw SRPException.INCORRECT_PROTOCOL;
 		
-		PasswordData data = manager.getUserData(username);
-		server = new SRPServer(username, data.salt, data.verifier);
+		startHandshake();
+		expireAfter(SRPHandshakeExpiry.Phase.LOOKUP, username.length()*2 + A.length);
+		CompletionStage<PasswordData> pending = lookUp(username);
+		lookup = pending;
+		fast = true;
+		pending.whenComplete((data, e) -> sendServerHello(pending, username, group, A, data, e));
+	}
+	
+	/**
+	 * Starts the server side of a fast handshake with the password data found by the specified
+	 * lookup, unless the authentication has been abandoned or the lookup failed. A client ephemeral
+	 * from another group than the user's is rejected as an incorrect protocol, so the client falls
+	 * back to the original handshake and learns the group.
+	 */
+	private synchronized void sendServerHello(CompletionStage<PasswordData> pending, String username, byte group, byte[] A, PasswordData data, Throwable error) {
+		
+		if(lookup != pending)
+			return;
+		
+		lookup = null;
+		try {
+			
+			if(error != null)
+				throw toSRPException(error);
+			
+			if(data.group.getId() != group)
+				throw SRPException.INCORRECT_PROTOCOL;
+			
+			server = new SRPServer(username, data, ephemerals);
+			server.setA(A);
+			sendEphemeral(data.salt);
+		}catch(SRPException e) {
+			
+			rejectAuthentication(e);
+		}
+	}
+	
+	/**
+	 * Starts the server side of the authentication with the password data found by the specified
+	 * lookup, unless the authentication has been abandoned, the lookup failed, or the user's group
+	 * is smaller than the client accepts.
+	 */
+	private synchronized void sendServerNegotiate(CompletionStage<PasswordData> pending, String username, SRPGroup minimum, PasswordData data, Throwable error) {
+		
+		if(lookup != pending)
+			return;
+		
+		lookup = null;
+		if(error != null) {
+			
+			rejectAuthentication(toSRPException(error));
+			return;
+		}
+		
+		if(minimum == null || !data.group.isAtLeast(minimum)) {
+			
+			rejectAuthentication(SRPException.INCORRECT_PROTOCOL);
+			return;
+		}
+		
+		server = new SRPServer(username, data, ephemerals);
+		expireAfter(SRPHandshakeExpiry.Phase.EPHEMERAL, username.length()*2 + data.salt.length + data.verifier.length);
 
-		sendPacketReliably(new PacketServerNegotiate(data.salt));
+		sendPacketReliably(new PacketServerNegotiate(data.salt, data.group.getId(), data.iterations));
 		launchPacket();
 	}
 	
 	/**
-	 * Sets the salt for this client, generates the client ephemeral, and sends the appropriate response.
+	 * Sets the salt for this client, generates the client ephemeral in the user's group, and sends
+	 * the appropriate response.
 	 * @param salt The salt used to generate the password verifier.
+	 * @param group The id of the group the password verifier belongs to.
+	 * @param iterations The number of PBKDF2 iterations the password verifier was generated with.
 	 * @throws SRPException If an error is encountered during the authentication.
 	 */
-	protected synchronized void serverNegotiate(byte[] salt) throws SRPException {
+	protected synchronized void serverNegotiate(byte[] salt, byte group, int iterations) throws SRPException {
 		
-		if(server != null || user == null)
-			throw new SRPException.IncorrectProtocolException();
+		if(server != null || user == null || iterations < 0 || iterations > maximumIterations)
+			throw SRPException.INCORRECT_PROTOCOL;
 		
-		user.setSalt(salt);
-
+		SRPGroup userGroup = SRPGroup.fromId(group);
+		if(userGroup == null || !userGroup.isAtLeast(minimumGroup))
+			throw SRPException.INCORRECT_PROTOCOL;
+		
+		user.setGroup(userGroup);
 		sendPacketReliably(new PacketClientEphemeral(user.getA()));
 		launchPacket();
+		
+		deriveKey(salt, iterations);
+	}
+	
+	/**
+	 * Derives the client's private key from the salt. A key derived with PBKDF2 is derived on
+	 * a key derivation pool, so the network thread and this Session are not held up by it.
+	 */
+	private void deriveKey(byte[] salt, int iterations) {
+		
+		if(iterations == 0) {
+			
+			user.setSalt(salt, 0);
+			return;
+		}
+		
+		SRPKeyDerivation derivation = this.derivation;
+		derived = (derivation == null ? derivations : derivation).setSalt(user, salt, iterations);
 	}
 	
 	/**
@@ -116,12 +724,65 @@ public class SRPSession extends Session{
 	protected synchronized void clientEphemeral(byte[] A) throws SRPException {
 		
 		if(server == null || user != null)
-			throw new SRPException.IncorrectProtocolException();
+			throw SRPException.INCORRECT_PROTOCOL;
 		
+		cancelDeadline();
 		server.setA(A);
+		sendEphemeral(null);
+	}
+	
+	/**
+	 * Computes and sends the server ephemeral, then derives the session key while the client works.
+	 * @param salt The salt to send with the server ephemeral in a fast handshake, or null.
+	 */
+	private void sendEphemeral(byte[] salt) throws SRPException {
+		
+		SRPMetrics metrics = this.metrics;
+		long start = System.nanoTime();
+		SRPBatchVerifier batch = this.batch;
+		if(batch != null) {
+			
+			SRPServer pending = server;
+			batch.getB(pending).whenComplete((B, e) -> {
+				
+				if(metrics != null)
+					metrics.ephemeral(System.nanoTime() - start);
+				
+				if(sendServerEphemeral(pending, salt, B, e))
+					batch.deriveKey(pending);
+			});
+			return;
+		}
 
-		sendPacketReliably(new PacketServerEphemeral(server.getB()));
+		byte[] B = server.getB();
+		if(metrics != null)
+			metrics.ephemeral(System.nanoTime() - start);
+		
+		sendServerEphemeral(server, salt, B, null);
+		server.deriveKey();
+	}
+	
+	/**
+	 * Sends the server ephemeral computed for the specified server, unless the authentication
+	 * has been abandoned or the computation failed.
+	 * @return True if the server ephemeral was sent.
+	 */
+	private synchronized boolean sendServerEphemeral(SRPServer pending, byte[] salt, byte[] B, Throwable error) {
+		
+		if(server != pending)
+			return false;
+		
+		if(error != null) {
+			
+			rejectAuthentication(toSRPException(error));
+			return false;
+		}
+		
+		//The verifier, A, and B are each the size of N, plus b and the session key
+		expireAfter(SRPHandshakeExpiry.Phase.PROOF, pending.getUsername().length()*2 + pending.getSalt().length + B.length*3 + 64);
+		sendPacketReliably(salt == null ? new PacketServerEphemeral(B) : new PacketServerHello(salt, pending.getIterations(), B));
 		launchPacket();
+		return true;
 	}
 	
 	/**
@@ -132,7 +793,43 @@ public class SRPSession extends Session{
 	protected synchronized void serverEphemeral(byte[] B) throws SRPException {
 		
 		if(server != null || user == null)
-			throw new SRPException.IncorrectProtocolException();
+			throw SRPException.INCORRECT_PROTOCOL;
+		
+		CompletableFuture<Void> derived = this.derived;
+		if(derived != null) {
+			
+			SRPUser pending = user;
+			derived.whenComplete((v, e) -> sendClientProof(pending, B, e));
+			return;
+		}
+		
+		sendClientProof(B);
+	}
+	
+	/**
+	 * Sends the client proof once the private key of the specified client has been derived, unless
+	 * the authentication has been abandoned or the derivation failed.
+	 */
+	private synchronized void sendClientProof(SRPUser pending, byte[] B, Throwable error) {
+		
+		if(user != pending)
+			return;
+		
+		derived = null;
+		try {
+			
+			if(error != null)
+				throw toSRPException(error);
+			
+			sendClientProof(B);
+		}catch(SRPException e) {
+			
+			rejectAuthentication(e);
+		}
+	}
+	
+	
+	private void sendClientProof(byte[] B) throws SRPException {
 		
 		user.setB(B);
 
@@ -140,6 +837,27 @@ public class SRPSession extends Session{
 		launchPacket();
 	}
 	
+	/**
+	 * Sets the salt and server ephemeral received in a fast handshake, generates the client proof,
+	 * and sends the appropriate response.
+	 * @param salt The salt used to generate the password verifier.
+	 * @param iterations The number of PBKDF2 iterations the password verifier was generated with.
+	 * @param B The server ephemeral.
+	 * @throws SRPException If an error is encountered during the authentication.
+	 */
+	protected synchronized void serverHello(byte[] salt, int iterations, byte[] B) throws SRPException {
+		
+		if(server != null || user == null || iterations < 0 || iterations > maximumIterations)
+			throw SRPException.INCORRECT_PROTOCOL;
+		
+		//The answer to a fast handshake this client has already given up on
+		if(!fast)
+			return;
+		
+		deriveKey(salt, iterations);
+		serverEphemeral(B);
+	}
+	
 	/**
 	 * Verifies the client proof, generates the server proof, and sends the appropriate response.
 	 * This finishes the authentication process for the server.
@@ -149,18 +867,84 @@ public class SRPSession extends Session{
 	protected synchronized void clientProof(byte[] M) throws SRPException {
 		
 		if(server == null || user != null)
-			throw new SRPException.IncorrectProtocolException();
+			throw SRPException.INCORRECT_PROTOCOL;
+		
+		cancelDeadline();
+		SRPMetrics metrics = this.metrics;
+		long start = System.nanoTime();
+		SRPBatchVerifier batch = this.batch;
+		if(batch != null) {
+			
+			SRPServer pending = server;
+			batch.getHAMK(pending, M).whenComplete((HAMK, e) -> {
+				
+				if(metrics != null)
+					metrics.verification(System.nanoTime() - start);
+				
+				sendServerProof(pending, HAMK, e);
+			});
+			return;
+		}
+		
+		byte[] HAMK;
+		try {
+			
+			HAMK = server.getHAMK(M);
+		}finally {
+			
+			if(metrics != null)
+				metrics.verification(System.nanoTime() - start);
+		}
 		
-		byte[] HAMK = server.getHAMK(M);
+		sendServerProof(server, HAMK, null);
+	}
+	
+	/**
+	 * Sends the server proof computed for the specified server and finishes the authentication,
+	 * unless the authentication has been abandoned or the client's proof was rejected.
+	 */
+	private synchronized void sendServerProof(SRPServer pending, byte[] HAMK, Throwable error) {
+		
+		if(server != pending)
+			return;
+		
+		if(error != null) {
+			
+			rejectAuthentication(toSRPException(error));
+			return;
+		}
 
-		sendPacketReliably(new PacketServerProof(HAMK));
+		setAuthenticated(pending.getSessionKey(), false);
+		if(fast)
+			sendPacketReliably(new PacketServerFinish(HAMK, sealEarlyData(pending.getUsername())));
+		else
+			sendPacketReliably(new PacketServerProof(HAMK));
+		
+		sendTicket(pending.getUsername(), pending.getSessionKey());
 		launchPacket();
 		
-		authenticated = true;
+		endHandshake(true);
+		fast = false;
 		server = null;
 		user = null;
 	}
 	
+	/**
+	 * Encrypts the application data to send to the specified user with the server's proof.
+	 * @return The sealed record, or an empty array if there is no data to send.
+	 */
+	private byte[] sealEarlyData(String username) {
+		
+		Function<String, byte[]> earlyData = this.earlyData;
+		byte[] data = earlyData == null ? null : earlyData.apply(username);
+		if(data == null)
+			return new byte[0];
+		
+		ByteBuffer record = ByteBuffer.allocate(data.length + SRPRecordLayer.OVERHEAD);
+		getRecordLayer().seal(ByteBuffer.wrap(data), record);
+		return record.array();
+	}
+	
 	/**
 	 * Verifies the server proof. The authentication process is finished upon successfully returning
 	 * from a call to this method.
@@ -170,16 +954,186 @@ public class SRPSession extends Session{
 	protected synchronized void serverProof(byte[] HAMK) throws SRPException {
 		
 		if(server != null || user == null)
-			throw new SRPException.IncorrectProtocolException();
+			throw SRPException.INCORRECT_PROTOCOL;
+		
+		finish(HAMK, null);
+	}
+	
+	/**
+	 * Verifies the server proof and decrypts any application data sent with it at the end of a fast
+	 * handshake. The authentication process is finished upon successfully returning from a call to
+	 * this method.
+	 * @param HAMK The server proof.
+	 * @param data The sealed application data, which may be empty.
+	 * @throws SRPException If an error is encountered during the authentication.
+	 */
+	protected synchronized void serverFinish(byte[] HAMK, byte[] data) throws SRPException {
+		
+		if(server != null || user == null || !fast)
+			throw SRPException.INCORRECT_PROTOCOL;
+		
+		finish(HAMK, data);
+	}
+	
+	
+	private void finish(byte[] HAMK, byte[] data) throws SRPException {
 		
 		user.verify(HAMK);
-		authenticated = true;
+		setAuthenticated(user.getSessionKey(), true);
+		if(data != null && data.length > 0) {
+			
+			ByteBuffer plaintext = ByteBuffer.allocate(data.length);
+			try {
+				
+				getRecordLayer().open(ByteBuffer.wrap(data), plaintext);
+			}catch(SRPException e) {
+				
+				setAuthenticated(null, false);
+				throw e;
+			}
+			
+			received = Arrays.copyOf(plaintext.array(), plaintext.position());
+		}
+		
+		fast = false;
+		resumedUser = user.getUsername();
+		ticketKey = user.getSessionKey();
 		server = null;
 		user = null;
+		result.complete(null);
+	}
+	
+	/**
+	 * Begins resuming an earlier authenticated session with a ticket issued by the server, without
+	 * blocking. The returned future completes when both sides have proven that they hold the earlier
+	 * session key, or completes exceptionally with the {@link SRPException} that ended the resumption,
+	 * in which case the client should authenticate again with its password.
+	 * @param ticket The ticket issued to the earlier session.
+	 * @return A future that completes when the resumption is finished.
+	 * @see #getResumptionTicket()
+	 */
+	public CompletableFuture<Void> resumeAuthenticationAsync(ResumptionTicket ticket) {
+		
+		CompletableFuture<Void> attempt = new CompletableFuture<>();
+		synchronized(this) {
+			
+			if(server != null || user != null || resumption != null) {
+				
+				attempt.completeExceptionally(SRPException.INCORRECT_PROTOCOL);
+				return attempt;
+			}
+			
+			setAuthenticated(null, false);
+			resumption = new SRPResumption(ticket.key);
+			resumingClient = false;
+			resumedUser = ticket.username;
+			ticketKey = null;
+			result = attempt;
+			sendPacketReliably(new PacketClientResume(ticket.ticket, resumption.getClientNonce()));
+			launchPacket();
+		}
+		
+		attempt.whenComplete((v, e) -> {
+			
+			if(attempt.isCancelled())
+				abortAuthentication(attempt, SRPException.AUTHENTICATION_FAILED);
+		});
+		
+		return attempt;
+	}
+	
+	/**
+	 * Redeems the client's resumption ticket and sends the server's proof of the earlier session key.
+	 * @param ticket The ticket presented by the client.
+	 * @param nonce The client's nonce.
+	 * @throws SRPException If the ticket is invalid or an error is encountered during the resumption.
+	 */
+	protected synchronized void clientResume(byte[] ticket, byte[] nonce) throws SRPException {
+		
+		SRPTicketIssuer tickets = this.tickets;
+		if(tickets == null || server != null || user != null || lookup != null || resumption != null)
+			throw SRPException.INCORRECT_PROTOCOL;
+		
+		startHandshake();
+		SRPTicketIssuer.Ticket redeemed = tickets.redeem(ticket);
+		resumption = new SRPResumption(redeemed.getKey(), nonce);
+		resumingClient = true;
+		resumedUser = redeemed.getUsername();
+		expireAfter(SRPHandshakeExpiry.Phase.PROOF, resumedUser.length()*2 + 32*4);
+		
+		sendPacketReliably(new PacketServerResume(resumption.getServerNonce(), resumption.getServerProof()));
+		launchPacket();
+	}
+	
+	/**
+	 * Verifies the server's proof of the earlier session key and sends the client's proof.
+	 * @param nonce The server's nonce.
+	 * @param proof The server's proof.
+	 * @throws SRPException If an error is encountered during the resumption.
+	 */
+	protected synchronized void serverResume(byte[] nonce, byte[] proof) throws SRPException {
+		
+		if(resumption == null || resumingClient || resumption.getServerNonce() != null)
+			throw SRPException.INCORRECT_PROTOCOL;
+		
+		sendPacketReliably(new PacketClientResumeProof(resumption.verifyServer(nonce, proof)));
+		launchPacket();
+	}
+	
+	/**
+	 * Verifies the client's proof of the earlier session key and issues a ticket for the resumed
+	 * session. This finishes the resumption for the server.
+	 * @param proof The client's proof.
+	 * @throws SRPException If an error is encountered during the resumption.
+	 */
+	protected synchronized void clientResumeProof(byte[] proof) throws SRPException {
+		
+		if(resumption == null || !resumingClient)
+			throw SRPException.INCORRECT_PROTOCOL;
+		
+		resumption.verifyClient(proof);
+		sendTicket(resumedUser, resumption.getSessionKey());
+		launchPacket();
+		
+		setAuthenticated(resumption.getSessionKey(), false);
+		resumption = null;
+		endHandshake(true);
+	}
+	
+	/**
+	 * Stores a ticket sent by the server. If a resumption is in progress, this finishes it.
+	 * @param ticket The ticket.
+	 * @throws SRPException If the server sent a ticket that was not expected.
+	 */
+	protected synchronized void sessionTicket(byte[] ticket) throws SRPException {
 		
-		synchronized(lock) {
-			lock.notifyAll();
+		if(resumption != null) {
+			
+			if(resumingClient || resumption.getServerNonce() == null)
+				throw SRPException.INCORRECT_PROTOCOL;
+			
+			this.ticket = new ResumptionTicket(resumedUser, resumption.getSessionKey(), ticket);
+			setAuthenticated(resumption.getSessionKey(), true);
+			resumption = null;
+			result.complete(null);
+		}
+		else if(ticketKey != null) {
+			
+			this.ticket = new ResumptionTicket(resumedUser, ticketKey, ticket);
+			ticketKey = null;
 		}
+		else
+			throw SRPException.INCORRECT_PROTOCOL;
+	}
+	
+	/**
+	 * Queues a resumption ticket for the specified session, if this server issues tickets.
+	 */
+	private void sendTicket(String username, byte[] K) {
+		
+		SRPTicketIssuer tickets = this.tickets;
+		if(tickets != null)
+			sendPacketReliably(new PacketSessionTicket(tickets.issue(username, K)));
 	}
 	
 	/**
@@ -187,34 +1141,103 @@ public class SRPSession extends Session{
 	 */
 	protected void failAuthentication() {
 		
+		failAuthentication(SRPException.AUTHENTICATION_FAILED);
+	}
+	
+	/**
+	 * Called if the authentication process fails at any step after being started.
+	 * @param cause The reason the authentication failed.
+	 */
+	protected synchronized void failAuthentication(SRPException cause) {
+		
+		SRPMetrics metrics = this.metrics;
+		if(metrics != null)
+			metrics.error(cause.getError());
+		
+		endHandshake(false);
+		lookup = null;
+		resumption = null;
+		fast = false;
 		user = null;
 		server = null;
 
-		synchronized(lock) {
-			lock.notifyAll();
-		}
+		CompletableFuture<Void> attempt = result;
+		if(attempt != null)
+			attempt.completeExceptionally(cause);
+	}
+	
+	/**
+	 * Fails the authentication and notifies the remote client of the reason.
+	 * @param cause The reason the authentication failed.
+	 */
+	protected synchronized void rejectAuthentication(SRPException cause) {
+		
+		failAuthentication(cause);
+		sendPacketReliably(new PacketSRPError(cause.getError()));
+		launchPacket();
+	}
+	
+	
+	private static SRPException toSRPException(Throwable error) {
+		
+		if(error instanceof CompletionException && error.getCause() != null)
+			error = error.getCause();
+		
+		if(error instanceof SRPException)
+			return (SRPException) error;
+		
+		return SRPException.AUTHENTICATION_FAILED;
 	}
 	
 	/**
 	 * Called by a client to wait until authentication is complete. When the client calls this function,
 	 * the current thread will block until the authentication is finished. This does not mean that the
 	 * authentication succeeded, just that no more responses from the server are expected. If a server
-	 * calls this method, it will return immediately.
+	 * calls this method, it will return immediately. If the thread is interrupted while waiting, this
+	 * method returns early with the thread's interrupt status set.
 	 */
 	public void waitUntilAuthenticated() {
 		
-		if(user == null)
+		CompletableFuture<Void> attempt = result;
+		if(attempt == null)
 			return;
 		
-		synchronized(lock) {			
-			while(!authenticated && user != null) {
-				try{
-					lock.wait();
-				}catch(InterruptedException e) {}
-			}
+		try {
+			
+			attempt.get();
+		}catch(ExecutionException e) {}
+		catch(InterruptedException e) {
+			
+			Thread.currentThread().interrupt();
 		}
 	}
 
+	/**
+	 * Returns the record layer that encrypts and authenticates data sent over this Session with
+	 * keys derived from the session key. The same record layer is returned until this Session is
+	 * authenticated again, since a second layer for the same key would reuse its nonces.
+	 * @return The record layer, or null if this Session is not authenticated.
+	 */
+	public synchronized SRPRecordLayer getRecordLayer() {
+		
+		if(!authenticated)
+			return null;
+		
+		if(records == null)
+			records = new SRPRecordLayer(sessionKey, client);
+		
+		return records;
+	}
+	
+	
+	private void setAuthenticated(byte[] K, boolean client) {
+		
+		this.authenticated = K != null;
+		this.sessionKey = K;
+		this.client = client;
+		this.records = null;
+	}
+
 	/**
 	 * Returns true if this Session has successfully been authenticated.
 	 * @return The authenticated state of this Session.
@@ -0,0 +1,68 @@
+package me.michael4797.network.packet;
+
+import java.io.IOException;
+
+import me.michael4797.crypto.srp.SRPGroup;
+import me.michael4797.util.BinaryInput;
+import me.michael4797.util.BinaryWriter;
+
+/**
+ * Starts the fast handshake with the client ephemeral. The group of the ephemeral follows it, and
+ * is absent from the packets of clients that predate groups, which only use the default group.
+ */
+public class PacketClientHello extends Packet{
+
+	private String username;
+	private byte group;
+	private byte[] A;
+	
+	
+	public PacketClientHello(String username, byte[] A){
+		
+		this(username, SRPGroup.DEFAULT.getId(), A);
+	}
+	
+	
+	public PacketClientHello(String username, byte group, byte[] A){
+		
+		this.username = username;
+		this.group = group;
+		this.A = A;
+	}
+	
+	
+	public String getUsername(){
+		
+		return username;
+	}
+	
+	
+	public byte getGroup(){
+		
+		return group;
+	}
+	
+	
+	public byte[] getA(){
+		
+		return A;
+	}
+	
+	
+	public static PacketClientHello read(BinaryInput reader) throws IOException {
+		
+		String username = reader.readString();
+		byte[] A = reader.readByteArray(reader.readShort()&65535);
+		return new PacketClientHello(username, TrailingFields.readByte(reader, SRPGroup.DEFAULT.getId()), A);
+	}
+
+	
+	@Override
+	public void send(BinaryWriter writer) {
+
+		writer.writeString(username);
+		writer.writeShort((short) A.length);
+		writer.writeByteArray(A);
+		writer.writeByte(group);
+	}
+}
\ No newline at end of file
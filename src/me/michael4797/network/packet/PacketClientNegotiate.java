@@ -2,17 +2,30 @@ package me.michael4797.network.packet;
 
 import java.io.IOException;
 
+import me.michael4797.crypto.srp.SRPGroup;
 import me.michael4797.util.BinaryInput;
 import me.michael4797.util.BinaryWriter;
 
+/**
+ * Starts the original handshake. The smallest group the client accepts follows the username, and
+ * is absent from the packets of clients that predate groups, which only accept the default group.
+ */
 public class PacketClientNegotiate extends Packet{
 
 	private String username;
+	private byte minimumGroup;
 	
 	
 	public PacketClientNegotiate(String username){
 		
+		this(username, SRPGroup.DEFAULT.getId());
+	}
+	
+	
+	public PacketClientNegotiate(String username, byte minimumGroup){
+		
 		this.username = username;
+		this.minimumGroup = minimumGroup;
 	}
 	
 	
@@ -22,9 +35,16 @@ public class PacketClientNegotiate extends Packet{
 	}
 	
 	
+	public byte getMinimumGroup(){
+		
+		return minimumGroup;
+	}
+	
+	
 	public static PacketClientNegotiate read(BinaryInput reader) throws IOException {
 		
-		return new PacketClientNegotiate(reader.readString());
+		String username = reader.readString();
+		return new PacketClientNegotiate(username, TrailingFields.readByte(reader, SRPGroup.DEFAULT.getId()));
 	}
 
 	
@@ -32,5 +52,6 @@ public class PacketClientNegotiate extends Packet{
 	public void send(BinaryWriter writer) {
 
 		writer.writeString(username);
+		writer.writeByte(minimumGroup);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,48 @@
+package me.michael4797.network.packet;
+
+import java.io.IOException;
+
+import me.michael4797.util.BinaryInput;
+import me.michael4797.util.BinaryWriter;
+
+public class PacketClientResume extends Packet{
+
+	private byte[] ticket;
+	private byte[] nonce;
+	
+	
+	public PacketClientResume(byte[] ticket, byte[] nonce){
+		
+		this.ticket = ticket;
+		this.nonce = nonce;
+	}
+	
+	
+	public byte[] getTicket(){
+		
+		return ticket;
+	}
+	
+	
+	public byte[] getNonce(){
+		
+		return nonce;
+	}
+	
+	
+	public static PacketClientResume read(BinaryInput reader) throws IOException {
+		
+		byte[] ticket = reader.readByteArray(reader.readShort()&65535);
+		return new PacketClientResume(ticket, reader.readByteArray(reader.readByte()&255));
+	}
+
+	
+	@Override
+	public void send(BinaryWriter writer) {
+
+		writer.writeShort((short) ticket.length);
+		writer.writeByteArray(ticket);
+		writer.writeByte((byte) nonce.length);
+		writer.writeByteArray(nonce);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,37 @@
+package me.michael4797.network.packet;
+
+import java.io.IOException;
+
+import me.michael4797.util.BinaryInput;
+import me.michael4797.util.BinaryWriter;
+
+public class PacketClientResumeProof extends Packet{
+
+	private byte[] proof;
+	
+	
+	public PacketClientResumeProof(byte[] proof){
+		
+		this.proof = proof;
+	}
+	
+	
+	public byte[] getProof(){
+		
+		return proof;
+	}
+	
+	
+	public static PacketClientResumeProof read(BinaryInput reader) throws IOException {
+		
+		return new PacketClientResumeProof(reader.readByteArray(reader.readByte()&255));
+	}
+
+	
+	@Override
+	public void send(BinaryWriter writer) {
+
+		writer.writeByte((byte) proof.length);
+		writer.writeByteArray(proof);
+	}
+}
\ No newline at end of file
@@ -8,7 +8,7 @@ import me.michael4797.util.BinaryWriter;
 
 public class PacketSRPError extends Packet{
 	
-	private byte error;
+	private final byte error;
 	
 	
 	public PacketSRPError(byte error){
@@ -0,0 +1,48 @@
+package me.michael4797.network.packet;
+
+import java.io.IOException;
+
+import me.michael4797.util.BinaryInput;
+import me.michael4797.util.BinaryWriter;
+
+public class PacketServerFinish extends Packet{
+
+	private byte[] HAMK;
+	private byte[] data;
+	
+	
+	public PacketServerFinish(byte[] HAMK, byte[] data){
+		
+		this.HAMK = HAMK;
+		this.data = data;
+	}
+	
+	
+	public byte[] getHAMK(){
+		
+		return HAMK;
+	}
+	
+	
+	public byte[] getData(){
+		
+		return data;
+	}
+	
+	
+	public static PacketServerFinish read(BinaryInput reader) throws IOException {
+		
+		byte[] HAMK = reader.readByteArray(reader.readByte()&255);
+		return new PacketServerFinish(HAMK, reader.readByteArray(reader.readShort()&65535));
+	}
+
+	
+	@Override
+	public void send(BinaryWriter writer) {
+
+		writer.writeByte((byte) HAMK.length);
+		writer.writeByteArray(HAMK);
+		writer.writeShort((short) data.length);
+		writer.writeByteArray(data);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,69 @@
+package me.michael4797.network.packet;
+
+import java.io.IOException;
+
+import me.michael4797.util.BinaryInput;
+import me.michael4797.util.BinaryWriter;
+
+/**
+ * Answers the fast handshake with the user's salt and the server ephemeral. The number of PBKDF2
+ * iterations the user's private key is derived with follows the ephemeral, and is absent from the
+ * packets of servers that predate it, whose users are all derived with a single hash.
+ */
+public class PacketServerHello extends Packet{
+
+	private byte[] salt;
+	private int iterations;
+	private byte[] B;
+	
+	
+	public PacketServerHello(byte[] salt, byte[] B){
+		
+		this(salt, 0, B);
+	}
+	
+	
+	public PacketServerHello(byte[] salt, int iterations, byte[] B){
+		
+		this.salt = salt;
+		this.iterations = iterations;
+		this.B = B;
+	}
+	
+	
+	public byte[] getSalt(){
+		
+		return salt;
+	}
+	
+	
+	public int getIterations(){
+		
+		return iterations;
+	}
+	
+	
+	public byte[] getB(){
+		
+		return B;
+	}
+	
+	
+	public static PacketServerHello read(BinaryInput reader) throws IOException {
+		
+		byte[] salt = reader.readByteArray(reader.readByte()&255);
+		byte[] B = reader.readByteArray(reader.readShort()&65535);
+		return new PacketServerHello(salt, TrailingFields.readInt(reader, 0), B);
+	}
+
+	
+	@Override
+	public void send(BinaryWriter writer) {
+
+		writer.writeByte((byte) salt.length);
+		writer.writeByteArray(salt);
+		writer.writeShort((short) B.length);
+		writer.writeByteArray(B);
+		writer.writeInt(iterations);
+	}
+}
\ No newline at end of file
@@ -2,17 +2,40 @@ package me.michael4797.network.packet;
 
 import java.io.IOException;
 
+import me.michael4797.crypto.srp.SRPGroup;
 import me.michael4797.util.BinaryInput;
 import me.michael4797.util.BinaryWriter;
 
+/**
+ * Answers the original handshake with the user's salt. The group of the user's verifier and the
+ * number of PBKDF2 iterations its private key is derived with follow the salt, and are absent from
+ * the packets of servers that predate them, whose users are all in the default group and derived
+ * with a single hash.
+ */
 public class PacketServerNegotiate extends Packet{
 
 	private byte[] salt;
+	private byte group;
+	private int iterations;
 	
 	
 	public PacketServerNegotiate(byte[] salt){
 		
+		this(salt, SRPGroup.DEFAULT.getId());
+	}
+	
+	
+	public PacketServerNegotiate(byte[] salt, byte group){
+		
+		this(salt, group, 0);
+	}
+	
+	
+	public PacketServerNegotiate(byte[] salt, byte group, int iterations){
+		
 		this.salt = salt;
+		this.group = group;
+		this.iterations = iterations;
 	}
 	
 	
@@ -22,9 +45,23 @@ public class PacketServerNegotiate extends Packet{
 	}
 	
 	
+	public byte getGroup(){
+		
+		return group;
+	}
+	
+	
+	public int getIterations(){
+		
+		return iterations;
+	}
+	
+	
 	public static PacketServerNegotiate read(BinaryInput reader) throws IOException {
 		
-		return new PacketServerNegotiate(reader.readByteArray(reader.readByte()&255));
+		byte[] salt = reader.readByteArray(reader.readByte()&255);
+		byte group = TrailingFields.readByte(reader, SRPGroup.DEFAULT.getId());
+		return new PacketServerNegotiate(salt, group, TrailingFields.readInt(reader, 0));
 	}
 
 	
@@ -33,5 +70,7 @@ public class PacketServerNegotiate extends Packet{
 
 		writer.writeByte((byte) salt.length);
 		writer.writeByteArray(salt);
+		writer.writeByte(group);
+		writer.writeInt(iterations);
 	}
 }
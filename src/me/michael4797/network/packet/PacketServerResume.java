@@ -0,0 +1,48 @@
+package me.michael4797.network.packet;
+
+import java.io.IOException;
+
+import me.michael4797.util.BinaryInput;
+import me.michael4797.util.BinaryWriter;
+
+public class PacketServerResume extends Packet{
+
+	private byte[] nonce;
+	private byte[] proof;
+	
+	
+	public PacketServerResume(byte[] nonce, byte[] proof){
+		
+		this.nonce = nonce;
+		this.proof = proof;
+	}
+	
+	
+	public byte[] getNonce(){
+		
+		return nonce;
+	}
+	
+	
+	public byte[] getProof(){
+		
+		return proof;
+	}
+	
+	
+	public static PacketServerResume read(BinaryInput reader) throws IOException {
+		
+		byte[] nonce = reader.readByteArray(reader.readByte()&255);
+		return new PacketServerResume(nonce, reader.readByteArray(reader.readByte()&255));
+	}
+
+	
+	@Override
+	public void send(BinaryWriter writer) {
+
+		writer.writeByte((byte) nonce.length);
+		writer.writeByteArray(nonce);
+		writer.writeByte((byte) proof.length);
+		writer.writeByteArray(proof);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,37 @@
+package me.michael4797.network.packet;
+
+import java.io.IOException;
+
+import me.michael4797.util.BinaryInput;
+import me.michael4797.util.BinaryWriter;
+
+public class PacketSessionTicket extends Packet{
+
+	private byte[] ticket;
+	
+	
+	public PacketSessionTicket(byte[] ticket){
+		
+		this.ticket = ticket;
+	}
+	
+	
+	public byte[] getTicket(){
+		
+		return ticket;
+	}
+	
+	
+	public static PacketSessionTicket read(BinaryInput reader) throws IOException {
+		
+		return new PacketSessionTicket(reader.readByteArray(reader.readShort()&65535));
+	}
+
+	
+	@Override
+	public void send(BinaryWriter writer) {
+
+		writer.writeShort((short) ticket.length);
+		writer.writeByteArray(ticket);
+	}
+}
\ No newline at end of file
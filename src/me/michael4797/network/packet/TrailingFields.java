@@ -0,0 +1,36 @@
+package me.michael4797.network.packet;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import me.michael4797.util.BinaryInput;
+
+/**
+ * Reads fields that later versions of the protocol append to the end of existing packets. Older
+ * peers ignore the extra data, and packets from older peers end before the field, in which case
+ * the value the older protocol implied is used instead.
+ */
+final class TrailingFields {
+
+	private TrailingFields() {}
+	
+	
+	static byte readByte(BinaryInput reader, byte absent) throws IOException {
+		
+		try {
+			return reader.readByte();
+		}catch(EOFException e) {
+			return absent;
+		}
+	}
+	
+	
+	static int readInt(BinaryInput reader, int absent) throws IOException {
+		
+		try {
+			return reader.readInt();
+		}catch(EOFException e) {
+			return absent;
+		}
+	}
+}